@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.kth.id1212.streams.filehandler.FileHandler;
+
+/**
+ * Compares reads of block compressed text and hex files with reads of the same content stored
+ * uncompressed. Each operation reads the whole payload, so the effective read throughput, in
+ * uncompressed bytes per second, is the score times <code>payloadBytes</code>. The size of each
+ * file is printed when it has been written. The files are usually in the page cache after the
+ * first iteration, drop the cache between iterations to measure reads that are bound by disk
+ * bandwidth. Since the payloads repeat the same few values, they compress better than most real
+ * files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CompressionBenchmark {
+    private static final String COMPRESSED_SUFFIX = ".z";
+
+    @Param({".txt", ".txt.z", ".dat", ".dat.z"})
+    private String format;
+
+    @Param({"16777216", "268435456"})
+    private int payloadBytes;
+
+    private final FileHandler fileHandler = new FileHandler();
+    private Path dir;
+    private String path;
+    private long middle;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException, ClassNotFoundException {
+        dir = Files.createTempDirectory("streams-bench");
+        String uncompressedFormat = format.endsWith(COMPRESSED_SUFFIX)
+                                    ? format.substring(0, format.length()
+                                                          - COMPRESSED_SUFFIX.length())
+                                    : format;
+        path = dir.resolve("read" + format).toString();
+        fileHandler.write(path, Payloads.create(uncompressedFormat, payloadBytes));
+        long end = fileHandler.endOffset(path);
+        middle = end / 2 - (end / 2) % Integer.BYTES;
+        System.out.println(format + " file of " + payloadBytes + " bytes payload has size "
+                           + Files.size(Paths.get(path)));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Payloads.deleteTree(dir);
+    }
+
+    @Benchmark
+    public void readChunks(Blackhole blackhole) throws IOException, ClassNotFoundException {
+        fileHandler.read(path, blackhole::consume);
+    }
+
+    /**
+     * Reads the second half of the file, compressed files are read from the block containing
+     * the offset.
+     */
+    @Benchmark
+    public long readFromMiddle(Blackhole blackhole) throws IOException {
+        return fileHandler.readFrom(path, middle, blackhole::consume);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.kth.id1212.streams.controller.Controller;
+import se.kth.id1212.streams.controller.ControllerConfig;
+import se.kth.id1212.streams.filehandler.FileHandler;
+
+/**
+ * Compares the fixed I/O pool with a thread per I/O task, by submitting many concurrent reads of
+ * small files and waiting for all of them. The pool rejects nothing, since its rejection policy is
+ * set to run rejected tasks in the submitting thread. Run on a JVM with virtual threads, Java 21
+ * or later, to measure virtual threads, otherwise a platform thread is started per task.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IoExecutionBenchmark {
+    private static final int NO_OF_FILES = 100;
+    private static final int FILE_BYTES = 4096;
+
+    @Param({"POOL", "THREAD_PER_TASK"})
+    private String execution;
+
+    @Param({"1000", "10000"})
+    private int concurrentReads;
+
+    private Path dir;
+    private Controller controller;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException, ClassNotFoundException {
+        dir = Files.createTempDirectory("streams-bench");
+        String content = Payloads.create(FileHandler.TEXT_FILE_EXTENSION, FILE_BYTES);
+        FileHandler fileHandler = new FileHandler();
+        for (int i = 0; i < NO_OF_FILES; i++) {
+            fileHandler.write(fileOf(i), content);
+        }
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.IO_EXECUTION, execution);
+        props.setProperty(ControllerConfig.REJECTION_POLICY, "CALLER_RUNS");
+        controller = new Controller(new ControllerConfig(props));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Payloads.deleteTree(dir);
+    }
+
+    @Benchmark
+    public void concurrentReads(Blackhole blackhole) {
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[concurrentReads];
+        for (int i = 0; i < concurrentReads; i++) {
+            reads[i] = controller.read(fileOf(i % NO_OF_FILES), blackhole::consume);
+        }
+        CompletableFuture.allOf(reads).join();
+    }
+
+    private String fileOf(int fileNo) {
+        return dir.resolve("file" + fileNo + FileHandler.TEXT_FILE_EXTENSION).toString();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.kth.id1212.streams.filehandler.FileHandler;
+
+/**
+ * Measures listing of large directories, both as one string and page by page. Run with
+ * <code>-prof gc</code> to also measure the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListDirBenchmark {
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({"1000", "100000"})
+    private int noOfEntries;
+
+    private final FileHandler fileHandler = new FileHandler();
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void createEntries() throws IOException {
+        dir = Files.createTempDirectory("streams-bench");
+        for (int i = 0; i < noOfEntries; i++) {
+            Files.createFile(dir.resolve("entry" + i + FileHandler.TEXT_FILE_EXTENSION));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteEntries() throws IOException {
+        Payloads.deleteTree(dir);
+    }
+
+    @Benchmark
+    public String listDir() throws IOException {
+        return fileHandler.listDir(dir.toString());
+    }
+
+    @Benchmark
+    public void listDirPaged(Blackhole blackhole) throws IOException {
+        String pageToken = null;
+        do {
+            pageToken = fileHandler.listDir(dir.toString(), null, PAGE_SIZE, pageToken, false,
+                                            blackhole::consume);
+        } while (pageToken != null);
+    }
+
+    @Benchmark
+    public void listDirWithAttributes(Blackhole blackhole) throws IOException {
+        fileHandler.listDir(dir.toString(), null, 0, null, true, blackhole::consume);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import se.kth.id1212.streams.filehandler.FileHandler;
+
+/**
+ * Creates file content of a given size, and cleans up the files created by benchmarks.
+ */
+final class Payloads {
+    private static final int TEXT_LINE_LENGTH = 79;
+    private static final String HEX_VALUE = "1a2b3c4d ";
+    private static final int HEX_VALUE_BYTES = Integer.BYTES;
+    private static final String WORD = "word ";
+    private static final int SERIALIZED_WORD_BYTES = 7;
+
+    private Payloads() {
+    }
+
+    /**
+     * Creates content that gives a file of about the specified size when it is written to a new
+     * file with the specified extension.
+     *
+     * @param extension    One of the extensions defined in {@link FileHandler}.
+     * @param payloadBytes The size of the written file.
+     * @return Content that can be passed to {@link FileHandler#write(String, String)}.
+     */
+    static String create(String extension, int payloadBytes) {
+        if (FileHandler.HEX_FILE_EXTENSION.equals(extension)) {
+            return repeat(HEX_VALUE, Math.max(1, payloadBytes / HEX_VALUE_BYTES));
+        }
+        if (FileHandler.OBJ_FILE_EXTENSION.equals(extension)) {
+            return repeat(WORD, Math.max(1, payloadBytes / SERIALIZED_WORD_BYTES)).trim();
+        }
+        StringBuilder text = new StringBuilder(payloadBytes);
+        while (text.length() < payloadBytes) {
+            int lineLength = Math.min(TEXT_LINE_LENGTH, payloadBytes - text.length());
+            for (int i = 0; i < lineLength; i++) {
+                text.append((char)('a' + i % 26));
+            }
+            if (text.length() < payloadBytes) {
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Deletes the specified directory and everything in it.
+     *
+     * @param dir The directory to delete.
+     * @throws IOException If failed to delete.
+     */
+    static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String repeat(String element, int times) {
+        StringBuilder repeated = new StringBuilder(element.length() * times);
+        for (int i = 0; i < times; i++) {
+            repeated.append(element);
+        }
+        return repeated.toString();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.kth.id1212.streams.filehandler.FileHandler;
+
+/**
+ * Measures {@link FileHandler#write(String, String)} and the two <code>read</code> methods for
+ * text, hex and serialized files, with payloads from a few bytes to a few hundred megabytes. Each
+ * write goes to a new file, since a serialized file can only be written once. Run with
+ * <code>-prof gc</code> to also measure the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReadWriteBenchmark {
+    @Param({".txt", ".dat", ".ser"})
+    private String format;
+
+    @Param({"64", "65536", "16777216", "268435456"})
+    private int payloadBytes;
+
+    private final FileHandler fileHandler = new FileHandler();
+    private Path dir;
+    private String content;
+    private String readPath;
+    private String writePath;
+    private int writeNo;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException, ClassNotFoundException {
+        dir = Files.createTempDirectory("streams-bench");
+        content = Payloads.create(format, payloadBytes);
+        readPath = dir.resolve("read" + format).toString();
+        fileHandler.write(readPath, content);
+    }
+
+    @Setup(Level.Invocation)
+    public void chooseNewWritePath() throws IOException {
+        if (writePath != null) {
+            Files.deleteIfExists(Paths.get(writePath));
+        }
+        writePath = dir.resolve("write" + writeNo++ + format).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Payloads.deleteTree(dir);
+    }
+
+    @Benchmark
+    public void write() throws IOException, ClassNotFoundException {
+        fileHandler.write(writePath, content);
+    }
+
+    @Benchmark
+    public String read() throws IOException, ClassNotFoundException {
+        return fileHandler.read(readPath);
+    }
+
+    @Benchmark
+    public void readChunks(Blackhole blackhole) throws IOException, ClassNotFoundException {
+        fileHandler.read(readPath, blackhole::consume);
+    }
+}
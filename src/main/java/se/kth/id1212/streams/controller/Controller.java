@@ -25,85 +25,772 @@ package se.kth.id1212.streams.controller;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import se.kth.id1212.streams.filehandler.AsyncFileHandler;
+import se.kth.id1212.streams.filehandler.CopyProgress;
+import se.kth.id1212.streams.filehandler.DeleteProgress;
+import se.kth.id1212.streams.filehandler.DiskUsage;
 import se.kth.id1212.streams.filehandler.FileHandler;
+import se.kth.id1212.streams.filehandler.ReadCache;
 
 /**
- * This controller decouples the view from the file handling.  All methods submit their task to the
- * common thread pool, provided by <code>ForkJoinPool.commonPool</code>, and then return immediately.
+ * This controller decouples the view from the file handling.  All methods submit their task to a
+ * bounded pool of I/O threads, and then return immediately. CPU-bound work is performed by a
+ * separate pool, so that it is never stuck behind blocking I/O. The sizes of the pools, and what
+ * happens when the I/O queue is full, are specified by a {@link ControllerConfig}. Operations on
+ * different files run in parallel. Writes to the same file are performed in the order they were
+ * submitted, and a read of a file sees all writes to that file submitted before the read. The
+ * latency and outcome of each operation are recorded, see {@link #getStats()}. Each operation is
+ * returned as a {@link Job}, which can be listed with {@link #getJobs()} and cancelled while it
+ * runs. If the {@link ControllerConfig.IoBackend#ASYNC} backend is selected, reads and writes are
+ * performed by an {@link AsyncFileHandler}, and do not occupy an I/O thread while they wait.
  */
 public class Controller {
-    private FileHandler fileHandler = new FileHandler();
+    private final FileHandler fileHandler;
+    private final AsyncFileHandler asyncFileHandler;
+    private final ExecutorService ioPool;
+    private final ForkJoinPool cpuPool;
+    private final ForkJoinPool copyPool;
+    private final ForkJoinPool deletePool;
+    private final ForkJoinPool duPool;
+    private final LongAdder rejectedTasks = new LongAdder();
+    private final ScheduledThreadPoolExecutor timer = createTimer();
+    private final WriteCoalescer writeCoalescer;
+    private final long followIntervalMillis;
+    private final Map<String, Long> tailOffsets = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledFuture<?>> followers = new ConcurrentHashMap<>();
+    private final Metrics metrics = new Metrics();
+    private final Map<Integer, Job<?>> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextJobId = new AtomicInteger();
+    private final long commandTimeoutMillis;
 
     /**
+     * Creates a new instance with settings read from the system properties.
+     */
+    public Controller() {
+        this(ControllerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Creates a new instance, with thread pools as specified by the specified settings.
+     *
+     * @param config The settings of the new instance.
+     */
+    public Controller(ControllerConfig config) {
+        this.ioPool = createIoPool(config);
+        this.cpuPool = new ForkJoinPool(config.getCpuThreads());
+        this.copyPool = new ForkJoinPool(config.getCopyParallelism());
+        this.deletePool = new ForkJoinPool(config.getDeleteParallelism());
+        this.duPool = new ForkJoinPool(config.getDuParallelism());
+        this.fileHandler = new FileHandler(config.getReadCacheBytes(),
+                                           config.getWatchDebounceMillis(), cpuPool);
+        this.asyncFileHandler = createAsyncFileHandler(config);
+        this.writeCoalescer = createWriteCoalescer(config);
+        this.followIntervalMillis = config.getFollowIntervalMillis();
+        this.commandTimeoutMillis = config.getCommandTimeoutMillis();
+        scheduleMetricsDump(config);
+    }
+
+    /**
+     * Creates a new instance, which uses the specified thread pools.
+     *
+     * @param ioPool  Performs blocking file I/O.
+     * @param cpuPool Performs CPU-bound work.
+     */
+    public Controller(ExecutorService ioPool, ForkJoinPool cpuPool) {
+        this(ioPool, cpuPool, ControllerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Creates a new instance, which uses the specified thread pools. Settings that do not concern
+     * thread pools are read from the specified configuration.
+     *
+     * @param ioPool  Performs blocking file I/O.
+     * @param cpuPool Performs CPU-bound work.
+     * @param config  Settings other than thread pools. The pools that copy, delete and scan
+     *                directory trees are created as specified by this configuration.
+     */
+    public Controller(ExecutorService ioPool, ForkJoinPool cpuPool, ControllerConfig config) {
+        this.ioPool = ioPool;
+        this.cpuPool = cpuPool;
+        this.copyPool = new ForkJoinPool(config.getCopyParallelism());
+        this.deletePool = new ForkJoinPool(config.getDeleteParallelism());
+        this.duPool = new ForkJoinPool(config.getDuParallelism());
+        this.fileHandler = new FileHandler(config.getReadCacheBytes(),
+                                           config.getWatchDebounceMillis(), cpuPool);
+        this.asyncFileHandler = createAsyncFileHandler(config);
+        this.writeCoalescer = createWriteCoalescer(config);
+        this.followIntervalMillis = config.getFollowIntervalMillis();
+        this.commandTimeoutMillis = config.getCommandTimeoutMillis();
+        scheduleMetricsDump(config);
+    }
+
+    /**
+     * @return The number of I/O tasks waiting for a free I/O thread, or, if each task is executed
+     *         in its own thread, for permission to run. Zero if the I/O pool was specified when
+     *         this instance was created, and is not a <code>ThreadPoolExecutor</code>.
+     */
+    public int getIoQueueDepth() {
+        if (ioPool instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor)ioPool).getQueue().size();
+        }
+        if (ioPool instanceof ThreadPerTaskExecutor) {
+            return ((ThreadPerTaskExecutor)ioPool).getWaitingTaskCount();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The number of I/O tasks that were rejected since the I/O queue was full.
+     */
+    public long getRejectedTaskCount() {
+        return rejectedTasks.sum();
+    }
+
+    /**
+     * @return The cache of decoded file content, with hit, miss and eviction counters.
+     */
+    public ReadCache getReadCache() {
+        return fileHandler.getReadCache();
+    }
+
+    /**
+     * @return Operation counts, failures, latencies and transferred characters.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return A report of the recorded metrics, the I/O queue and the read cache.
+     */
+    public String getStats() {
+        ReadCache readCache = getReadCache();
+        return metrics + System.lineSeparator()
+               + "I/O queue depth: " + getIoQueueDepth() + ", rejected tasks: "
+               + getRejectedTaskCount() + System.lineSeparator()
+               + "Read cache hits: " + readCache.getHits() + ", misses: " + readCache.getMisses()
+               + ", evictions: " + readCache.getEvictions();
+    }
+
+    /**
+     * @return The pool performing CPU-bound work.
+     */
+    public ForkJoinPool getCpuPool() {
+        return cpuPool;
+    }
+
+    /**
+     * @return A future that completes when the directory has been created.
      * @see FileHandler#createDir(java.lang.String)
      */
-    public void createDir(String path) {
-        CompletableFuture.runAsync(() -> {
+    public Job<Void> createDir(String path) {
+        return measure("CREATEDIR", path, job -> CompletableFuture.runAsync(() -> {
             try {
                 fileHandler.createDir(path);
             } catch (IOException ioe) {
                 throw new UncheckedIOException(ioe);
-            } catch (Throwable t) {
-                t.printStackTrace();
             }
-        });
+        }, job.runningOn(ioPool)));
     }
 
     /**
      * @see FileHandler#listDir(java.lang.String)
      */
     public void listDir(String path, Consumer showOutput) {
-        CompletableFuture.supplyAsync(() -> {
+        measure("LIST", path, job -> CompletableFuture.supplyAsync(() -> {
             try {
                 return fileHandler.listDir(path);
             } catch (IOException ioe) {
                 throw new UncheckedIOException(ioe);
             }
-        }).thenAccept(showOutput);
+        }, job.runningOn(ioPool))).thenAccept(showOutput);
     }
 
     /**
-     * @see FileHandler#write(java.lang.String, java.lang.String)
+     * Lists one page of the content of the specified directory, and hands the entries to
+     * <code>showOutput</code> one chunk at a time, as soon as they have been read.
+     *
+     * @return A future that completes with a token for the next page, or with <code>null</code>
+     *         if there are no more entries, when the last chunk has been handed to
+     *         <code>showOutput</code>.
+     * @see FileHandler#listDir(java.lang.String, java.lang.String, int, java.lang.String, boolean,
+     *      java.util.function.Consumer)
      */
-    public void write(String path, String content) {
-        CompletableFuture.runAsync(() -> {
+    public Job<String> listDir(String path, String glob, int pageSize, String pageToken,
+                               boolean withAttributes, Consumer showOutput) {
+        return measure("LIST", path, job -> CompletableFuture.supplyAsync(() -> {
             try {
-                fileHandler.write(path, content);
+                return fileHandler.listDir(path, glob, pageSize, pageToken, withAttributes,
+                                           job.tracking(showOutput));
             } catch (IOException ioe) {
                 throw new UncheckedIOException(ioe);
-            } catch (ClassNotFoundException cnfe) {
-                throw new RuntimeException(cnfe);
             }
-        });
+        }, job.runningOn(ioPool)));
+    }
+
+    /**
+     * Appends the specified content to the specified file. Writes to the same file that are
+     * submitted close in time are written together, see {@link ControllerConfig} for batch size,
+     * linger time and sync settings.
+     *
+     * @return A future that completes when the content has been written.
+     * @see FileHandler#write(java.lang.String, java.lang.String)
+     */
+    public Job<Void> write(String path, String content) {
+        return measure("WRITE", path, job -> writeCoalescer.append(path, content)
+                .thenRun(() -> metrics.addCharsWritten(path, content.length())));
     }
 
     /**
-     * @see FileHandler#read(java.lang.String)
+     * Reads the specified file and hands its content to <code>showOutput</code> one chunk at a
+     * time, as soon as each chunk has been read. The file is never held in memory as a whole. The
+     * read is not started until all writes to the same file that were submitted before the read
+     * are completed, which means the read sees the content of those writes.
+     *
+     * @return A future that completes when the last chunk has been handed to
+     *         <code>showOutput</code>.
+     * @see FileHandler#read(java.lang.String, java.util.function.Consumer)
      */
-    public void read(String path, Consumer showOutput) {
-        CompletableFuture.supplyAsync(() -> {
+    public Job<Void> read(String path, Consumer showOutput) {
+        if (asyncFileHandler != null) {
+            return measure("READ", path, job -> writeCoalescer.whenWritten(path).thenCompose(
+                    written -> asyncFileHandler.read(path,
+                                                     job.tracking(countReads(path, showOutput)))));
+        }
+        return measure("READ", path, job -> afterEarlierWrites(job, path, () -> {
             try {
-                return fileHandler.read(path);
+                fileHandler.read(path, job.tracking(countReads(path, showOutput)));
+                return null;
             } catch (IOException ioe) {
                 throw new UncheckedIOException(ioe);
             } catch (ClassNotFoundException ioe) {
                 throw new RuntimeException(ioe);
             }
-        }).thenAccept(showOutput);
+        }));
+    }
+
+    /**
+     * Reads the specified range of lines from the specified text file, and hands them to
+     * <code>showOutput</code> one chunk at a time.
+     *
+     * @return A future that completes when the last chunk has been handed to
+     *         <code>showOutput</code>.
+     * @see FileHandler#readLines(java.lang.String, long, long, java.util.function.Consumer)
+     */
+    public Job<Void> readLines(String path, long firstLine, long endLine,
+                               Consumer showOutput) {
+        return measure("READ", path, job -> afterEarlierWrites(job, path, () -> {
+            try {
+                fileHandler.readLines(path, firstLine, endLine,
+                                      job.tracking(countReads(path, showOutput)));
+                return null;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }));
+    }
+
+    /**
+     * Reads only the content appended to the specified file since the specified offset, and hands
+     * it to <code>showOutput</code> one chunk at a time. If no offset is specified, reading starts
+     * where the previous <code>tail</code> of the same file ended, or at the beginning of the file
+     * if it has not been tailed before.
+     *
+     * @param path       The file to read.
+     * @param offset     The offset where reading starts, or <code>null</code> to continue after
+     *                   the previous <code>tail</code>.
+     * @param showOutput Receives the content.
+     * @return A future that completes with the offset where the next <code>tail</code> of the
+     *         file starts, when the last chunk has been handed to <code>showOutput</code>.
+     * @see FileHandler#readFrom(java.lang.String, long, java.util.function.Consumer)
+     */
+    public Job<Long> tail(String path, Long offset, Consumer showOutput) {
+        String key = WriteCoalescer.keyOf(path);
+        return measure("TAIL", path, job -> afterEarlierWrites(job, path, () -> {
+            try {
+                long from = offset != null ? offset : tailOffsets.getOrDefault(key, 0L);
+                long next = fileHandler.readFrom(path, from,
+                                                 job.tracking(countReads(path, showOutput)));
+                tailOffsets.put(key, next);
+                return next;
+            } catch (NoSuchFileException noFile) {
+                tailOffsets.remove(key);
+                throw new UncheckedIOException(noFile);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }));
+    }
+
+    /**
+     * Starts following the specified file. Content appended to the file after this call is handed
+     * to <code>showOutput</code> as it arrives. The file is checked for new content at the
+     * interval specified by {@link ControllerConfig#FOLLOW_INTERVAL_MILLIS}. If the file is
+     * already followed, the previous follower is stopped.
+     *
+     * @param path       The file to follow.
+     * @param showOutput Receives content appended to the file, one chunk at a time.
+     * @return A future that completes when following has started.
+     */
+    public Job<Void> follow(String path, Consumer showOutput) {
+        return measure("FOLLOW", path, job -> afterEarlierWrites(job, path, () -> {
+            try {
+                return fileHandler.endOffset(path);
+            } catch (NoSuchFileException noFileYet) {
+                return 0L;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }).thenAccept(startOffset -> {
+            Follower follower = new Follower(path, startOffset, showOutput);
+            ScheduledFuture<?> polling = timer.scheduleWithFixedDelay(
+                    follower::poll, followIntervalMillis, followIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+            ScheduledFuture<?> previous = followers.put(WriteCoalescer.keyOf(path), polling);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+        }));
+    }
+
+    /**
+     * Removes the offsets where the next <code>tail</code> of the specified file, or of any file
+     * in the specified directory tree, would start. Shall be called when the files no longer
+     * exist, to keep offsets of removed files from accumulating.
+     */
+    private void forgetTailOffsets(String path) {
+        Path removed = Paths.get(WriteCoalescer.keyOf(path));
+        tailOffsets.keySet().removeIf(key -> Paths.get(key).startsWith(removed));
+    }
+
+    /**
+     * Stops following the specified file.
+     *
+     * @param path The file that shall no longer be followed.
+     * @return <code>true</code> if the file was followed.
+     */
+    public boolean unfollow(String path) {
+        ScheduledFuture<?> follower = followers.remove(WriteCoalescer.keyOf(path));
+        if (follower == null) {
+            return false;
+        }
+        follower.cancel(false);
+        return true;
+    }
+
+    /**
+     * Copies the specified file or directory tree. Files in a directory tree are copied
+     * concurrently, at most as many at a time as specified by
+     * {@link ControllerConfig#COPY_PARALLELISM}. The copy is not started until all writes to the
+     * source that were submitted before the copy are completed.
+     *
+     * @param source The file or directory to copy.
+     * @param target The path of the copy, which must not exist.
+     * @return A future that completes with the number of copied files and bytes, and the
+     *         throughput, when the copy is completed.
+     * @see FileHandler#copy(java.lang.String, java.lang.String,
+     *      java.util.concurrent.ForkJoinPool)
+     */
+    public Job<CopyProgress> copy(String source, String target) {
+        return measure("COPY", source + " " + target, job -> afterEarlierWrites(job, source, () -> {
+            try {
+                return fileHandler.copy(source, target, copyPool);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }));
+    }
+
+    /**
+     * Deletes the specified file or directory tree. Directories in a tree are emptied
+     * concurrently, at most as many at a time as specified by
+     * {@link ControllerConfig#DELETE_PARALLELISM}. The delete is not started until all writes to
+     * the path that were submitted before the delete are completed.
+     *
+     * @param path       The file or directory to delete.
+     * @param showOutput Receives the progress while a large tree is deleted.
+     * @return A future that completes with the number of deleted files and directories, and the
+     *         rate, when the delete is completed.
+     * @see FileHandler#delete(java.lang.String, java.util.concurrent.ForkJoinPool,
+     *      java.util.function.Consumer)
+     */
+    public Job<DeleteProgress> delete(String path, Consumer showOutput) {
+        return measure("DELETE", path, job -> afterEarlierWrites(job, path, () -> {
+            try {
+                Consumer<String> showProgress = job.tracking(showOutput);
+                DeleteProgress deleted = fileHandler.delete(
+                        path, deletePool, progress -> showProgress.accept(progress.toString()));
+                forgetTailOffsets(path);
+                return deleted;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }));
+    }
+
+    /**
+     * Moves (renames) the specified file or directory. The move is atomic if the source and the
+     * target are on the same file system, otherwise the source is copied and then deleted. The
+     * move is not started until all writes to the source that were submitted before the move are
+     * completed.
+     *
+     * @param source The file or directory to move.
+     * @param target The new path, which must not exist.
+     * @return A future that completes when the move is completed.
+     * @see FileHandler#move(java.lang.String, java.lang.String,
+     *      java.util.concurrent.ForkJoinPool)
+     */
+    public Job<Void> move(String source, String target) {
+        return measure("MOVE", source + " " + target, job -> afterEarlierWrites(job, source, () -> {
+            try {
+                fileHandler.move(source, target, copyPool);
+                forgetTailOffsets(source);
+                return null;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }));
+    }
+
+    /**
+     * Computes the disk usage of the specified file or directory tree. Directories are scanned
+     * concurrently, at most as many at a time as specified by
+     * {@link ControllerConfig#DU_PARALLELISM}. Directories that have not changed since they were
+     * last scanned are not listed again.
+     *
+     * @param path The file or directory.
+     * @return A future that completes with the total size, the number of files per extension and
+     *         the largest files.
+     * @see FileHandler#diskUsage(java.lang.String, java.util.concurrent.ForkJoinPool)
+     */
+    public Job<DiskUsage> diskUsage(String path) {
+        return measure("DU", path, job -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return fileHandler.diskUsage(path, duPool);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }, job.runningOn(ioPool)));
+    }
+
+    /**
+     * Searches the specified text file, or all text files in the specified directory tree, for
+     * lines containing the specified pattern, and hands the matching lines to
+     * <code>showOutput</code> as they are found. The files are scanned by the CPU pool.
+     *
+     * @param path       The file or directory to search.
+     * @param pattern    A literal string or a regular expression.
+     * @param showOutput Receives the matching lines, with file names and line numbers.
+     * @return A future that completes with the number of matching lines, when the last match has
+     *         been handed to <code>showOutput</code>.
+     * @see FileHandler#grep(java.lang.String, java.lang.String,
+     *      java.util.concurrent.ForkJoinPool, java.util.function.Consumer)
+     */
+    public Job<Long> grep(String path, String pattern, Consumer showOutput) {
+        return measure("GREP", path, job -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return fileHandler.grep(path, pattern, cpuPool,
+                                        job.tracking(showOutput));
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }, job.runningOn(ioPool)));
+    }
+
+    /**
+     * Starts watching the specified directory, and all directories below it. Created, modified and
+     * deleted files are handed to <code>showOutput</code> as they are detected, changes of the
+     * same file that happen close in time are reported together. The debounce time is specified
+     * by {@link ControllerConfig#WATCH_DEBOUNCE_MILLIS}. If the directory is already watched, the
+     * previous watcher is stopped.
+     *
+     * @param path       The directory to watch.
+     * @param showOutput Receives a description of each change.
+     * @return A future that completes when watching has started.
+     * @see FileHandler#watch(java.lang.String, java.util.function.Consumer)
+     */
+    public Job<Void> watch(String path, Consumer showOutput) {
+        return measure("WATCH", path, job -> CompletableFuture.runAsync(() -> {
+            try {
+                fileHandler.unwatch(path);
+                fileHandler.watch(path, event -> showOutput.accept(event.toString()));
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }, job.runningOn(ioPool)));
+    }
+
+    /**
+     * Stops watching the specified directory.
+     *
+     * @param path The directory that shall no longer be watched.
+     * @return <code>true</code> if the directory was watched.
+     */
+    public boolean unwatch(String path) {
+        return fileHandler.unwatch(path);
     }
 
     /**
      * Takes very long time to complete. Used to illustrate responsive UI.
+     *
+     * @return A future that completes when the task is done, or when it is cancelled.
      */
-    public void longRunningTask() {
+    public Job<Void> longRunningTask() {
         int tenSecs = 10000;
-        CompletableFuture.runAsync(() -> {
+        return measure("SLOWCMD", "", job -> CompletableFuture.runAsync(() -> {
             try {
                 Thread.sleep(tenSecs);
             } catch (InterruptedException ignore) {
             }
+        }, job.runningOn(ioPool)));
+    }
+
+    /**
+     * @return The jobs that are not completed, ordered by id.
+     */
+    public List<Job<?>> getJobs() {
+        List<Job<?>> running = new ArrayList<>(jobs.values());
+        running.sort(Comparator.comparingInt(Job::getId));
+        return running;
+    }
+
+    /**
+     * Cancels the specified job, and interrupts the thread performing its I/O.
+     *
+     * @param id The id of the job to cancel.
+     * @return <code>true</code> if the job was cancelled, <code>false</code> if there is no
+     *         uncompleted job with the specified id.
+     * @see Job#cancel(boolean)
+     */
+    public boolean cancel(int id) {
+        Job<?> job = jobs.get(id);
+        return job != null && job.cancel(true);
+    }
+
+    /**
+     * Starts the specified operation as a job, and records its latency and outcome when it
+     * completes. The job completes after the operation has been recorded. An operation that can
+     * not be started at all, for example since the I/O queue is full, is recorded as failed. If
+     * {@link ControllerConfig#COMMAND_TIMEOUT_MILLIS} is specified, a job that has not completed
+     * within that time is stopped.
+     */
+    private <T> Job<T> measure(String operation, String target,
+                               Function<Job<T>, CompletableFuture<T>> starter) {
+        long start = System.nanoTime();
+        Job<T> job = new Job<>(nextJobId.incrementAndGet(), operation, target,
+                               (finished, failed) -> {
+                                   jobs.remove(finished.getId());
+                                   metrics.recordOperation(operation, System.nanoTime() - start,
+                                                           failed);
+                               });
+        jobs.put(job.getId(), job);
+        CompletableFuture<T> result;
+        try {
+            result = starter.apply(job);
+        } catch (RuntimeException notStarted) {
+            job.finishWith(null, notStarted);
+            throw notStarted;
+        }
+        result.whenComplete(job::finishWith);
+        if (commandTimeoutMillis > 0 && !job.isDone()) {
+            ScheduledFuture<?> timeout = timer.schedule(job::timeOut, commandTimeoutMillis,
+                                                        TimeUnit.MILLISECONDS);
+            job.whenComplete((value, failure) -> timeout.cancel(false));
+        }
+        return job;
+    }
+
+    private Consumer<String> countReads(String path, Consumer showOutput) {
+        return chunk -> {
+            metrics.addCharsRead(path, chunk.length());
+            showOutput.accept(chunk);
+        };
+    }
+
+    /**
+     * If a metrics file is specified, the report returned by {@link #getStats()} is written to
+     * that file at the specified interval. Failures to write are ignored, the next dump is
+     * attempted anyway.
+     */
+    private void scheduleMetricsDump(ControllerConfig config) {
+        Path metricsFile = config.getMetricsFile();
+        if (metricsFile == null) {
+            return;
+        }
+        long interval = config.getMetricsIntervalMillis();
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                Files.write(metricsFile, getStats().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ignored) {
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the specified task in the I/O pool when all writes to the specified file that were
+     * submitted before this call have completed.
+     */
+    private <T> CompletableFuture<T> afterEarlierWrites(String path, Supplier<T> task) {
+        return afterEarlierWrites(path, ioPool, task);
+    }
+
+    /**
+     * Runs the specified task of the specified job as described in
+     * {@link #afterEarlierWrites(java.lang.String, java.util.function.Supplier)}. The task can be
+     * cancelled with the job.
+     */
+    private <T> CompletableFuture<T> afterEarlierWrites(Job<?> job, String path,
+                                                        Supplier<T> task) {
+        return afterEarlierWrites(path, job.runningOn(ioPool), task);
+    }
+
+    private <T> CompletableFuture<T> afterEarlierWrites(String path, Executor executor,
+                                                        Supplier<T> task) {
+        CompletableFuture<Void> earlierWrites = writeCoalescer.whenWritten(path);
+        if (earlierWrites.isDone()) {
+            return CompletableFuture.supplyAsync(task, executor);
+        }
+        return earlierWrites.thenApplyAsync(ignored -> task.get(), executor);
+    }
+
+    /**
+     * Creates the timer, which removes cancelled tasks at once, since a timeout is scheduled for
+     * each job and most jobs complete long before their timeout.
+     */
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "streams-timer");
+            thread.setDaemon(true);
+            return thread;
         });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * The asynchronous handler gets threads of its own, since the blocking operations in the I/O
+     * pool may wait for locks that are released by the asynchronous handler.
+     */
+    private AsyncFileHandler createAsyncFileHandler(ControllerConfig config) {
+        if (config.getIoBackend() == ControllerConfig.IoBackend.ASYNC) {
+            ExecutorService channelPool = Executors.newFixedThreadPool(
+                    config.getIoThreads(), new IoThreadFactory("streams-async-io-"));
+            return new AsyncFileHandler(fileHandler, channelPool);
+        }
+        return null;
+    }
+
+    private WriteCoalescer createWriteCoalescer(ControllerConfig config) {
+        if (asyncFileHandler != null) {
+            return new WriteCoalescer(asyncFileHandler, ioPool, timer, config);
+        }
+        return new WriteCoalescer(fileHandler, ioPool, timer, config);
+    }
+
+    private ExecutorService createIoPool(ControllerConfig config) {
+        if (config.getIoExecution() == ControllerConfig.IoExecution.THREAD_PER_TASK) {
+            return new ThreadPerTaskExecutor(config.getIoConcurrency());
+        }
+        return new ThreadPoolExecutor(
+                config.getIoThreads(), config.getIoThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getIoQueueSize()),
+                new IoThreadFactory("streams-io-"),
+                createRejectionHandler(config.getRejectionPolicy()));
+    }
+
+    private RejectedExecutionHandler createRejectionHandler(
+            ControllerConfig.RejectionPolicy policy) {
+        RejectedExecutionHandler handler = policy == ControllerConfig.RejectionPolicy.CALLER_RUNS
+                                           ? new ThreadPoolExecutor.CallerRunsPolicy()
+                                           : new ThreadPoolExecutor.AbortPolicy();
+        return (task, pool) -> {
+            rejectedTasks.increment();
+            handler.rejectedExecution(task, pool);
+        };
+    }
+
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNo = new AtomicInteger();
+        private final String namePrefix;
+
+        IoThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, namePrefix + threadNo.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Checks a followed file for new content. A check is skipped if the previous check of the same
+     * file has not completed.
+     */
+    private class Follower {
+        private final String path;
+        private final Consumer showOutput;
+        private final AtomicBoolean polling = new AtomicBoolean();
+        private volatile long offset;
+
+        Follower(String path, long offset, Consumer showOutput) {
+            this.path = path;
+            this.offset = offset;
+            this.showOutput = showOutput;
+        }
+
+        void poll() {
+            if (!polling.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                afterEarlierWrites(path, () -> {
+                    try {
+                        return fileHandler.readFrom(path, offset, countReads(path, showOutput));
+                    } catch (NoSuchFileException noFileYet) {
+                        return offset;
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                }).whenComplete((next, failure) -> {
+                    if (next != null) {
+                        offset = next;
+                    }
+                    polling.set(false);
+                });
+            } catch (RuntimeException rejected) {
+                polling.set(false);
+            }
+        }
     }
 }
@@ -0,0 +1,489 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import se.kth.id1212.streams.filehandler.FileHandler;
+
+/**
+ * Settings for a {@link Controller}. Each setting is read from a property, the property names are
+ * listed below. Settings that are not specified get default values.
+ */
+public class ControllerConfig {
+    /**
+     * The number of threads that perform blocking file I/O.
+     */
+    public static final String IO_THREADS = "streams.io.threads";
+
+    /**
+     * The maximum number of I/O tasks waiting for a free I/O thread.
+     */
+    public static final String IO_QUEUE_SIZE = "streams.io.queue";
+
+    /**
+     * How blocking file I/O is executed, one of the names in {@link IoExecution}.
+     */
+    public static final String IO_EXECUTION = "streams.io.execution";
+
+    /**
+     * The maximum number of I/O tasks that run at the same time when I/O is executed in a thread
+     * per task, which limits the number of open files.
+     */
+    public static final String IO_CONCURRENCY = "streams.io.concurrency";
+
+    /**
+     * How files are read and written, one of the names in {@link IoBackend}.
+     */
+    public static final String IO_BACKEND = "streams.io.backend";
+
+    /**
+     * The number of threads that perform CPU-bound work.
+     */
+    public static final String CPU_THREADS = "streams.cpu.threads";
+
+    /**
+     * What happens to an I/O task when the I/O queue is full, one of the names in
+     * {@link RejectionPolicy}.
+     */
+    public static final String REJECTION_POLICY = "streams.io.rejection";
+
+    /**
+     * The maximum number of writes to the same file that are written together.
+     */
+    public static final String WRITE_BATCH_SIZE = "streams.write.batch";
+
+    /**
+     * The number of milliseconds a write waits for more writes to the same file, before they are
+     * written together. Zero means writes are only batched if they arrive while an earlier write to
+     * the same file is in progress.
+     */
+    public static final String WRITE_LINGER_MILLIS = "streams.write.linger";
+
+    /**
+     * If <code>true</code>, a write is not completed until it has been forced to the storage
+     * device.
+     */
+    public static final String WRITE_SYNC = "streams.write.sync";
+
+    /**
+     * The maximum amount of memory, in bytes, used to cache decoded file content. Zero, which is
+     * the default, means no content is cached.
+     */
+    public static final String READ_CACHE_BYTES = "streams.cache.bytes";
+
+    /**
+     * The number of milliseconds between each check for new content in a followed file.
+     */
+    public static final String FOLLOW_INTERVAL_MILLIS = "streams.follow.interval";
+
+    /**
+     * The number of milliseconds without new changes in a watched directory, before the changes
+     * are reported.
+     */
+    public static final String WATCH_DEBOUNCE_MILLIS = "streams.watch.debounce";
+
+    /**
+     * The maximum number of files that are copied concurrently when a directory tree is copied.
+     */
+    public static final String COPY_PARALLELISM = "streams.copy.parallelism";
+
+    /**
+     * The maximum number of directories that are emptied concurrently when a directory tree is
+     * deleted.
+     */
+    public static final String DELETE_PARALLELISM = "streams.delete.parallelism";
+
+    /**
+     * The maximum number of directories that are scanned concurrently when the disk usage of a
+     * directory tree is computed.
+     */
+    public static final String DU_PARALLELISM = "streams.du.parallelism";
+
+    /**
+     * A file to which metrics are written periodically. No metrics are written if this property
+     * is not specified.
+     */
+    public static final String METRICS_FILE = "streams.metrics.file";
+
+    /**
+     * The number of milliseconds between each write of metrics to {@link #METRICS_FILE}.
+     */
+    public static final String METRICS_INTERVAL_MILLIS = "streams.metrics.interval";
+
+    /**
+     * The maximum number of milliseconds a command may run before it is cancelled. Zero, which is
+     * the default, means commands are never cancelled because of their running time.
+     */
+    public static final String COMMAND_TIMEOUT_MILLIS = "streams.command.timeout";
+
+    /**
+     * The maximum number of commands from a script that are executing, or waiting for their
+     * output to be printed, at the same time.
+     */
+    public static final String BATCH_WINDOW = "streams.batch.window";
+
+    /**
+     * If <code>true</code>, output is printed by a separate writer thread, instead of by the
+     * threads that produce it.
+     */
+    public static final String OUTPUT_ASYNC = "streams.output.async";
+
+    /**
+     * The maximum number of outputs waiting to be printed by the writer thread, when
+     * {@link #OUTPUT_ASYNC} is set.
+     */
+    public static final String OUTPUT_QUEUE_SIZE = "streams.output.queue";
+
+    /**
+     * The maximum number of milliseconds output printed by the writer thread stays in its buffer
+     * before it is flushed. Zero means output is flushed whenever there is no more output waiting
+     * to be printed.
+     */
+    public static final String OUTPUT_FLUSH_MILLIS = "streams.output.flush";
+
+    private static final String PROPERTY_PREFIX = "streams.";
+    private static final int DEFAULT_IO_THREADS = 16;
+    private static final int DEFAULT_IO_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_IO_CONCURRENCY = 1024;
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 256;
+    private static final int DEFAULT_FOLLOW_INTERVAL_MILLIS = 500;
+    private static final int DEFAULT_COPY_PARALLELISM = 4;
+    private static final int DEFAULT_DELETE_PARALLELISM = 4;
+    private static final int DEFAULT_DU_PARALLELISM = 4;
+    private static final int DEFAULT_METRICS_INTERVAL_MILLIS = 60000;
+    private static final int DEFAULT_BATCH_WINDOW = 64;
+    private static final int DEFAULT_OUTPUT_QUEUE_SIZE = 10000;
+    private final Properties props;
+
+    /**
+     * How blocking file I/O is executed.
+     */
+    public enum IoExecution {
+        /**
+         * I/O tasks are executed by a fixed number of threads, see {@link #IO_THREADS}, and wait
+         * in a bounded queue, see {@link #IO_QUEUE_SIZE}, for a free thread.
+         */
+        POOL,
+
+        /**
+         * Each I/O task is executed in a new virtual thread, or in a new platform thread if the
+         * JVM does not support virtual threads. At most {@link #IO_CONCURRENCY} tasks run at the
+         * same time, the others wait in their threads. Tasks are never rejected.
+         */
+        THREAD_PER_TASK
+    }
+
+    /**
+     * How files are read and written.
+     */
+    public enum IoBackend {
+        /**
+         * Reads and writes are performed with blocking streams, each occupies an I/O thread from
+         * start to end.
+         */
+        BLOCKING,
+
+        /**
+         * Reads and writes are performed with asynchronous file channels, no thread is occupied
+         * while they wait for a lock or for earlier writes to the same file. Other operations are
+         * still performed with blocking I/O.
+         */
+        ASYNC
+    }
+
+    /**
+     * What to do with a task that is submitted when the I/O queue is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * The command fails immediately.
+         */
+        ABORT,
+
+        /**
+         * The task is executed by the thread that submitted it, which means the submitter can
+         * not submit more tasks until there is room in the queue.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * Creates a new instance, with settings read from the specified properties.
+     *
+     * @param props Properties with the names listed in this class.
+     */
+    public ControllerConfig(Properties props) {
+        this.props = props;
+    }
+
+    /**
+     * @return A new instance with settings read from the system properties.
+     */
+    public static ControllerConfig fromSystemProperties() {
+        return new ControllerConfig(System.getProperties());
+    }
+
+    /**
+     * Creates a new instance with settings read from the specified command line arguments, on the
+     * form <code>--io.threads=8</code>, which sets the property <code>streams.io.threads</code>.
+     * Settings that are not specified on the command line are read from the system properties.
+     *
+     * @param args The command line arguments. Arguments that do not start with <code>--</code>
+     *             or do not contain <code>=</code> are ignored.
+     * @return A new instance with settings from the command line and system properties.
+     */
+    public static ControllerConfig fromCommandLine(String[] args) {
+        Properties props = new Properties();
+        props.putAll(System.getProperties());
+        if (args != null) {
+            for (String arg : args) {
+                int valueStart = arg.indexOf('=');
+                if (arg.startsWith("--") && valueStart > 0) {
+                    props.setProperty(PROPERTY_PREFIX + arg.substring(2, valueStart),
+                                      arg.substring(valueStart + 1));
+                }
+            }
+        }
+        return new ControllerConfig(props);
+    }
+
+    /**
+     * @return The number of threads that perform blocking file I/O.
+     */
+    public int getIoThreads() {
+        return getPositiveInt(IO_THREADS, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * @return The maximum number of I/O tasks waiting for a free I/O thread.
+     */
+    public int getIoQueueSize() {
+        return getPositiveInt(IO_QUEUE_SIZE, DEFAULT_IO_QUEUE_SIZE);
+    }
+
+    /**
+     * @return How blocking file I/O is executed.
+     */
+    public IoExecution getIoExecution() {
+        String execution = props.getProperty(IO_EXECUTION, IoExecution.POOL.name());
+        try {
+            return IoExecution.valueOf(execution.trim().toUpperCase());
+        } catch (IllegalArgumentException unknownExecution) {
+            throw new IllegalArgumentException("Unknown value of " + IO_EXECUTION + ": "
+                                               + execution);
+        }
+    }
+
+    /**
+     * @return The maximum number of I/O tasks that run at the same time, when each task is
+     *         executed in its own thread.
+     */
+    public int getIoConcurrency() {
+        return getPositiveInt(IO_CONCURRENCY, DEFAULT_IO_CONCURRENCY);
+    }
+
+    /**
+     * @return How files are read and written.
+     */
+    public IoBackend getIoBackend() {
+        String backend = props.getProperty(IO_BACKEND, IoBackend.BLOCKING.name());
+        try {
+            return IoBackend.valueOf(backend.trim().toUpperCase());
+        } catch (IllegalArgumentException unknownBackend) {
+            throw new IllegalArgumentException("Unknown value of " + IO_BACKEND + ": " + backend);
+        }
+    }
+
+    /**
+     * @return The number of threads that perform CPU-bound work.
+     */
+    public int getCpuThreads() {
+        return getPositiveInt(CPU_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return What happens to an I/O task when the I/O queue is full.
+     */
+    public RejectionPolicy getRejectionPolicy() {
+        String policy = props.getProperty(REJECTION_POLICY, RejectionPolicy.ABORT.name());
+        try {
+            return RejectionPolicy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException unknownPolicy) {
+            throw new IllegalArgumentException("Unknown value of " + REJECTION_POLICY + ": "
+                                               + policy);
+        }
+    }
+
+    /**
+     * @return The maximum number of writes to the same file that are written together.
+     */
+    public int getWriteBatchSize() {
+        return getPositiveInt(WRITE_BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE);
+    }
+
+    /**
+     * @return The number of milliseconds a write waits for more writes to the same file.
+     */
+    public long getWriteLingerMillis() {
+        return getNonNegativeLong(WRITE_LINGER_MILLIS, 0);
+    }
+
+    /**
+     * @return <code>true</code> if writes shall be forced to the storage device.
+     */
+    public boolean isWriteSync() {
+        return Boolean.parseBoolean(props.getProperty(WRITE_SYNC, "false").trim());
+    }
+
+    /**
+     * @return The maximum amount of memory used to cache decoded file content.
+     */
+    public long getReadCacheBytes() {
+        return getNonNegativeLong(READ_CACHE_BYTES, 0);
+    }
+
+    /**
+     * @return The number of milliseconds between each check for new content in a followed file.
+     */
+    public long getFollowIntervalMillis() {
+        return getPositiveLong(FOLLOW_INTERVAL_MILLIS, DEFAULT_FOLLOW_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @return The number of milliseconds without new changes before changes in a watched
+     *         directory are reported.
+     */
+    public long getWatchDebounceMillis() {
+        return getPositiveLong(WATCH_DEBOUNCE_MILLIS, FileHandler.DEFAULT_WATCH_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @return The maximum number of files that are copied concurrently.
+     */
+    public int getCopyParallelism() {
+        return getPositiveInt(COPY_PARALLELISM, DEFAULT_COPY_PARALLELISM);
+    }
+
+    /**
+     * @return The maximum number of directories that are emptied concurrently.
+     */
+    public int getDeleteParallelism() {
+        return getPositiveInt(DELETE_PARALLELISM, DEFAULT_DELETE_PARALLELISM);
+    }
+
+    /**
+     * @return The maximum number of directories that are scanned concurrently.
+     */
+    public int getDuParallelism() {
+        return getPositiveInt(DU_PARALLELISM, DEFAULT_DU_PARALLELISM);
+    }
+
+    /**
+     * @return The file to which metrics are written periodically, or <code>null</code> if
+     *         metrics shall not be written.
+     */
+    public Path getMetricsFile() {
+        String file = props.getProperty(METRICS_FILE);
+        if (file == null || file.trim().isEmpty()) {
+            return null;
+        }
+        return Paths.get(file.trim());
+    }
+
+    /**
+     * @return The number of milliseconds between each write of metrics.
+     */
+    public long getMetricsIntervalMillis() {
+        return getPositiveLong(METRICS_INTERVAL_MILLIS, DEFAULT_METRICS_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @return The maximum number of milliseconds a command may run, or zero if there is no limit.
+     */
+    public long getCommandTimeoutMillis() {
+        return getNonNegativeLong(COMMAND_TIMEOUT_MILLIS, 0);
+    }
+
+    /**
+     * @return The maximum number of script commands that are in progress at the same time.
+     */
+    public int getBatchWindow() {
+        return getPositiveInt(BATCH_WINDOW, DEFAULT_BATCH_WINDOW);
+    }
+
+    /**
+     * @return <code>true</code> if output shall be printed by a separate writer thread.
+     */
+    public boolean isOutputAsync() {
+        return Boolean.parseBoolean(props.getProperty(OUTPUT_ASYNC, "false").trim());
+    }
+
+    /**
+     * @return The maximum number of outputs waiting to be printed by the writer thread.
+     */
+    public int getOutputQueueSize() {
+        return getPositiveInt(OUTPUT_QUEUE_SIZE, DEFAULT_OUTPUT_QUEUE_SIZE);
+    }
+
+    /**
+     * @return The maximum number of milliseconds printed output waits before it is flushed.
+     */
+    public long getOutputFlushMillis() {
+        return getNonNegativeLong(OUTPUT_FLUSH_MILLIS, 0);
+    }
+
+    int getPositiveInt(String name, int defaultValue) {
+        long value = getPositiveLong(name, defaultValue);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too large value of " + name + ": " + value);
+        }
+        return (int)value;
+    }
+
+    long getPositiveLong(String name, long defaultValue) {
+        return getLong(name, defaultValue, 1, "a positive");
+    }
+
+    long getNonNegativeLong(String name, long defaultValue) {
+        return getLong(name, defaultValue, 0, "a non-negative");
+    }
+
+    private long getLong(String name, long defaultValue, long minValue, String requirement) {
+        String value = props.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed >= minValue) {
+                return parsed;
+            }
+        } catch (NumberFormatException notANumber) {
+        }
+        throw new IllegalArgumentException("The value of " + name + " must be " + requirement
+                                           + " integer, not " + value);
+    }
+}
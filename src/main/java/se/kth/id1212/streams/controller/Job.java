@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * An operation started by a {@link Controller}, and the future that completes when the
+ * operation is completed. A job that is cancelled, or that times out, completes immediately. The
+ * thread performing its I/O, if any, is interrupted, which aborts I/O on interruptible channels.
+ * Output is no longer handed to the job's consumer, which stops reads and searches at the next
+ * chunk. Writes that are already batched with other writes are completed anyway.
+ *
+ * @param <T> The result of the operation.
+ */
+public class Job<T> extends CompletableFuture<T> {
+    private final int id;
+    private final String operation;
+    private final String target;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder progress = new LongAdder();
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+    private final BiConsumer<Job<T>, Boolean> beforeCompletion;
+    private Thread runner;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param id               Identifies the job among the jobs of the same controller.
+     * @param operation        The name of the operation.
+     * @param target           The file or directory the operation concerns.
+     * @param beforeCompletion Called once, with <code>true</code> if the job failed, just before
+     *                         the job completes.
+     */
+    Job(int id, String operation, String target, BiConsumer<Job<T>, Boolean> beforeCompletion) {
+        this.id = id;
+        this.operation = operation;
+        this.target = target;
+        this.beforeCompletion = beforeCompletion;
+    }
+
+    /**
+     * @return The id of this job, which can be used to cancel it.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The name of the operation performed by this job.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return The file or directory the operation concerns.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return The number of milliseconds since this job was started.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The number of characters handed to the job's consumer so far.
+     */
+    public long getProgress() {
+        return progress.sum();
+    }
+
+    /**
+     * Cancels this job. If <code>mayInterruptIfRunning</code> is <code>true</code>, the thread
+     * performing the job's I/O is interrupted.
+     *
+     * @return <code>true</code> if the job was cancelled by this call.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!claimCompletion()) {
+            return false;
+        }
+        stop(mayInterruptIfRunning);
+        beforeCompletion.accept(this, true);
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * Completes this job with the specified value, unless it is already completed, cancelled or
+     * timed out. Like all other ways to complete the job, this calls the job's completion
+     * callback first.
+     *
+     * @return <code>true</code> if the job was completed by this call.
+     */
+    @Override
+    public boolean complete(T value) {
+        return finishWith(value, null);
+    }
+
+    /**
+     * Completes this job with the specified failure, unless it is already completed, cancelled or
+     * timed out. Like all other ways to complete the job, this calls the job's completion
+     * callback first.
+     *
+     * @return <code>true</code> if the job was completed by this call.
+     */
+    @Override
+    public boolean completeExceptionally(Throwable failure) {
+        return finishWith(null, failure);
+    }
+
+    /**
+     * A job is completed only once, therefore this method does the same as
+     * {@link #complete(java.lang.Object)}, it never replaces the outcome of a completed job.
+     */
+    @Override
+    public void obtrudeValue(T value) {
+        complete(value);
+    }
+
+    /**
+     * A job is completed only once, therefore this method does the same as
+     * {@link #completeExceptionally(java.lang.Throwable)}, it never replaces the outcome of a
+     * completed job.
+     */
+    @Override
+    public void obtrudeException(Throwable failure) {
+        completeExceptionally(failure);
+    }
+
+    /**
+     * @return The id, operation, target, elapsed time and progress of this job.
+     */
+    @Override
+    public String toString() {
+        return String.format("%6d %-10s %8d ms %12d chars  %s", id, operation, getElapsedMillis(),
+                             getProgress(), target);
+    }
+
+    /**
+     * Completes this job with the outcome of its operation, unless it is already cancelled or
+     * timed out.
+     *
+     * @return <code>true</code> if the job was completed by this call.
+     */
+    boolean finishWith(T value, Throwable failure) {
+        if (!claimCompletion()) {
+            return false;
+        }
+        beforeCompletion.accept(this, failure != null);
+        if (failure == null) {
+            return super.complete(value);
+        }
+        return super.completeExceptionally(failure);
+    }
+
+    /**
+     * Stops this job since it has run longer than allowed. The job completes with a
+     * <code>TimeoutException</code>.
+     */
+    void timeOut() {
+        if (!claimCompletion()) {
+            return;
+        }
+        stop(true);
+        beforeCompletion.accept(this, true);
+        super.completeExceptionally(new TimeoutException("Job " + id + " timed out after "
+                                                         + getElapsedMillis() + " ms"));
+    }
+
+    /**
+     * @return An executor that runs tasks of this job in the specified executor. A task is skipped
+     *         if the job is cancelled before it starts, and the thread running it is interrupted
+     *         if the job is cancelled while it runs.
+     */
+    Executor runningOn(Executor executor) {
+        return task -> executor.execute(() -> run(task));
+    }
+
+    /**
+     * @return A consumer that hands each chunk to the specified consumer, and counts it as
+     *         progress. If the job is cancelled, the returned consumer throws
+     *         <code>CancellationException</code> instead, which stops the operation producing the
+     *         chunks.
+     */
+    Consumer<String> tracking(Consumer<String> showOutput) {
+        return chunk -> {
+            if (cancelled) {
+                throw new CancellationException("Job " + id + " is cancelled");
+            }
+            progress.add(chunk.length());
+            showOutput.accept(chunk);
+        };
+    }
+
+    private void run(Runnable task) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            runner = Thread.currentThread();
+        }
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                runner = null;
+                if (cancelled) {
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    private synchronized void stop(boolean interrupt) {
+        cancelled = true;
+        if (interrupt && runner != null) {
+            runner.interrupt();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the caller shall complete this job, <code>false</code> if it
+     *         is already completed, or being completed by another thread. The job must be claimed
+     *         before its I/O is interrupted, otherwise the interrupted operation may complete the
+     *         job before it is cancelled.
+     */
+    private boolean claimCompletion() {
+        return finished.compareAndSet(false, true);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts operations, failures and transferred characters, and records operation latencies.
+ * Recording is lock-free, all counters are <code>LongAdder</code>s. Operations and file formats
+ * are added the first time they are recorded.
+ */
+public class Metrics {
+    private static final String NO_EXTENSION = "(none)";
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> charsRead = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> charsWritten = new ConcurrentHashMap<>();
+
+    /**
+     * Records that an operation has completed.
+     *
+     * @param operation    The name of the operation, for example <code>READ</code>.
+     * @param elapsedNanos The time from when the operation was submitted until it completed.
+     * @param failed       <code>true</code> if the operation failed.
+     */
+    public void recordOperation(String operation, long elapsedNanos, boolean failed) {
+        OperationMetrics metrics = operations.computeIfAbsent(operation,
+                                                              name -> new OperationMetrics());
+        metrics.latencies.record(elapsedNanos);
+        if (failed) {
+            metrics.failures.increment();
+        }
+    }
+
+    /**
+     * Adds the specified number of characters to those read from files with the extension of the
+     * specified file.
+     *
+     * @param path  The file that was read.
+     * @param chars The number of characters read.
+     */
+    public void addCharsRead(String path, long chars) {
+        charsRead.computeIfAbsent(extensionOf(path), extension -> new LongAdder()).add(chars);
+    }
+
+    /**
+     * Adds the specified number of characters to those written to files with the extension of
+     * the specified file.
+     *
+     * @param path  The file that was written.
+     * @param chars The number of characters written.
+     */
+    public void addCharsWritten(String path, long chars) {
+        charsWritten.computeIfAbsent(extensionOf(path), extension -> new LongAdder()).add(chars);
+    }
+
+    /**
+     * @param operation The name of an operation.
+     * @return The number of completed operations with the specified name.
+     */
+    public long getCount(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.latencies.getCount();
+    }
+
+    /**
+     * @param operation The name of an operation.
+     * @return The number of failed operations with the specified name.
+     */
+    public long getFailures(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.failures.sum();
+    }
+
+    /**
+     * @param operation The name of an operation.
+     * @return The latencies of the operations with the specified name, or <code>null</code> if
+     *         no such operation has completed.
+     */
+    public LatencyHistogram getLatencies(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? null : metrics.latencies;
+    }
+
+    /**
+     * @param extension A file extension, for example <code>.txt</code>.
+     * @return The number of characters read from files with the specified extension.
+     */
+    public long getCharsRead(String extension) {
+        LongAdder chars = charsRead.get(extension);
+        return chars == null ? 0 : chars.sum();
+    }
+
+    /**
+     * @param extension A file extension, for example <code>.txt</code>.
+     * @return The number of characters written to files with the specified extension.
+     */
+    public long getCharsWritten(String extension) {
+        LongAdder chars = charsWritten.get(extension);
+        return chars == null ? 0 : chars.sum();
+    }
+
+    /**
+     * @return A table of all metrics, with latencies in microseconds.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        String nl = System.lineSeparator();
+        report.append(String.format("%-10s %10s %8s %10s %10s %10s%n", "Operation", "Count",
+                                    "Failures", "p50 (us)", "p99 (us)", "p999 (us)"));
+        new TreeMap<>(operations).forEach((name, metrics) -> report.append(String.format(
+                "%-10s %10d %8d %10d %10d %10d%n", name, metrics.latencies.getCount(),
+                metrics.failures.sum(), micros(metrics.latencies.getPercentile(0.5)),
+                micros(metrics.latencies.getPercentile(0.99)),
+                micros(metrics.latencies.getPercentile(0.999)))));
+        report.append(nl).append(String.format("%-10s %15s %15s%n", "Format", "Chars read",
+                                               "Chars written"));
+        Map<String, Long[]> formats = new TreeMap<>();
+        charsRead.forEach((extension, chars) -> formats.computeIfAbsent(
+                extension, name -> new Long[]{0L, 0L})[0] = chars.sum());
+        charsWritten.forEach((extension, chars) -> formats.computeIfAbsent(
+                extension, name -> new Long[]{0L, 0L})[1] = chars.sum());
+        formats.forEach((extension, chars) -> report.append(String.format(
+                "%-10s %15d %15d%n", extension, chars[0], chars[1])));
+        return report.toString();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static String extensionOf(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || path.indexOf('/', dot) >= 0 || path.indexOf('\\', dot) >= 0) {
+            return NO_EXTENSION;
+        }
+        return path.substring(dot);
+    }
+
+    private static class OperationMetrics {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+    }
+}
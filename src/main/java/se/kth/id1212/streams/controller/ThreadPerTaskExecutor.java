@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs each task in a new thread. The threads are virtual threads if the JVM supports them, which
+ * means a blocked task does not occupy a platform thread. Otherwise they are platform threads.
+ * A thread is created only when a permit is available, the number of permits limits how many
+ * tasks perform I/O at the same time, and thereby how many files they keep open. A task that
+ * gets no permit is queued, and is run by the thread of the next task that completes, which
+ * passes on its permit instead of releasing it. If a thread can not be started, its task is
+ * queued again, and the task being submitted is rejected unless it is already started.
+ */
+class ThreadPerTaskExecutor extends AbstractExecutorService {
+    private final ThreadFactory threadFactory;
+    private final boolean virtual;
+    private final Semaphore permits;
+    private final BlockingDeque<Runnable> waiting = new LinkedBlockingDeque<>();
+    private final LongAdder running = new LongAdder();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxConcurrentTasks The maximum number of tasks that are run at the same time. Other
+     *                           tasks are queued.
+     */
+    ThreadPerTaskExecutor(int maxConcurrentTasks) {
+        ThreadFactory virtualThreads = createVirtualThreadFactory();
+        this.virtual = virtualThreads != null;
+        this.threadFactory = virtual ? virtualThreads : new PlatformThreadFactory();
+        this.permits = new Semaphore(maxConcurrentTasks);
+    }
+
+    /**
+     * @return <code>true</code> if tasks are run in virtual threads.
+     */
+    boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return The number of tasks waiting for a permit.
+     */
+    int getWaitingTaskCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Runs the specified task in a new thread if a permit is available, otherwise queues it.
+     *
+     * @throws RejectedExecutionException If this executor is shut down, or if no thread could be
+     *                                    started for the task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        running.increment();
+        waiting.add(task);
+        if (!permits.tryAcquire()) {
+            return;
+        }
+        Runnable next = nextTaskOrReleasePermit();
+        if (next == null) {
+            return;
+        }
+        try {
+            threadFactory.newThread(() -> runWithPermit(next)).start();
+        } catch (RuntimeException | OutOfMemoryError notStarted) {
+            waiting.offerFirst(next);
+            permits.release();
+            if (waiting.remove(task)) {
+                running.decrement();
+                throw new RejectedExecutionException("Could not start thread", notStarted);
+            }
+        }
+    }
+
+    /**
+     * Runs the specified task, and then all queued tasks, until the queue is empty. The permit is
+     * released when there is nothing more to run. A task that throws an exception is reported
+     * to the thread's uncaught exception handler, and does not stop the queued tasks.
+     */
+    private void runWithPermit(Runnable task) {
+        for (Runnable next = task; next != null; next = nextTaskOrReleasePermit()) {
+            try {
+                Thread.interrupted();
+                next.run();
+            } catch (RuntimeException failed) {
+                Thread current = Thread.currentThread();
+                current.getUncaughtExceptionHandler().uncaughtException(current, failed);
+            } finally {
+                running.decrement();
+            }
+        }
+    }
+
+    /**
+     * Must be called holding a permit.
+     *
+     * @return The next queued task, which shall be run with the permit, or <code>null</code> if
+     *         there is none, in which case the permit is released.
+     */
+    private Runnable nextTaskOrReleasePermit() {
+        Runnable next = waiting.poll();
+        while (next == null) {
+            permits.release();
+            if (waiting.isEmpty() || !permits.tryAcquire()) {
+                return null;
+            }
+            next = waiting.poll();
+        }
+        return next;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * Stops accepting tasks, and removes the queued tasks. Running tasks are not interrupted,
+     * since their threads are not tracked.
+     *
+     * @return The tasks that were queued.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> notRun = new ArrayList<>();
+        waiting.drainTo(notRun);
+        running.add(-notRun.size());
+        return notRun;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && running.sum() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Creates a factory of virtual threads by reflection, since this code is compiled for a
+     * release without virtual threads.
+     *
+     * @return The factory, or <code>null</code> if the JVM does not support virtual threads.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class)
+                    .invoke(builder, "streams-io-virtual-", 1L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory)factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException notSupported) {
+            return null;
+        }
+    }
+
+    private static class PlatformThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNo = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "streams-io-task-" + threadNo.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
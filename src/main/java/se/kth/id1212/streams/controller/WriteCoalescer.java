@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import se.kth.id1212.streams.filehandler.AsyncFileHandler;
+import se.kth.id1212.streams.filehandler.FileHandler;
+import se.kth.id1212.streams.filehandler.MalformedContentException;
+
+/**
+ * Collects writes to the same file and writes them together, opening the file only once for each
+ * batch. Writes to the same file are always written in the order they were submitted, and there
+ * is never more than one batch in progress per file. Writes that arrive while a batch is being
+ * written form the next batch. If a batch is rejected because some content is malformed, nothing
+ * has been written, and its writes are retried one by one, so that each write gets its own result.
+ * If a batch fails for any other reason, part of it may have been written, and all its writes fail
+ * with the batch's exception. A file's queue is removed when it has no more writes. The batches are written by a {@link BatchWriter}, which either writes
+ * a batch in the I/O thread that flushes it, or starts the write and lets the flush return.
+ */
+class WriteCoalescer {
+    private final BatchWriter batchWriter;
+    private final ExecutorService ioPool;
+    private final ScheduledExecutorService timer;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final boolean sync;
+    private final Map<String, PathQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new instance, which writes batches with blocking I/O.
+     *
+     * @param fileHandler Performs the writes.
+     * @param ioPool      Executes the writes.
+     * @param timer       Starts writes when the linger time has elapsed.
+     * @param config      Specifies batch size, linger time and whether writes are synced.
+     */
+    WriteCoalescer(FileHandler fileHandler, ExecutorService ioPool,
+                   ScheduledExecutorService timer, ControllerConfig config) {
+        this(blockingWriter(fileHandler), ioPool, timer, config);
+    }
+
+    /**
+     * Creates a new instance, which writes batches with asynchronous I/O. A batch does not occupy
+     * an I/O thread while it is written.
+     *
+     * @param asyncFileHandler Performs the writes.
+     * @param ioPool           Starts the writes.
+     * @param timer            Starts writes when the linger time has elapsed.
+     * @param config           Specifies batch size, linger time and whether writes are synced.
+     */
+    WriteCoalescer(AsyncFileHandler asyncFileHandler, ExecutorService ioPool,
+                   ScheduledExecutorService timer, ControllerConfig config) {
+        this(asyncFileHandler::write, ioPool, timer, config);
+    }
+
+    private WriteCoalescer(BatchWriter batchWriter, ExecutorService ioPool,
+                           ScheduledExecutorService timer, ControllerConfig config) {
+        this.batchWriter = batchWriter;
+        this.ioPool = ioPool;
+        this.timer = timer;
+        this.maxBatchSize = config.getWriteBatchSize();
+        this.lingerMillis = config.getWriteLingerMillis();
+        this.sync = config.isWriteSync();
+    }
+
+    /**
+     * Appends the specified content to the specified file.
+     *
+     * @param path    The file to write.
+     * @param content The content to write.
+     * @return A future that completes when the content has been written, and also forced to the
+     *         storage device if sync is enabled.
+     */
+    CompletableFuture<Void> append(String path, String content) {
+        PendingWrite write = new PendingWrite(content);
+        String key = keyOf(path);
+        while (!queues.computeIfAbsent(key, ignored -> new PathQueue(key, path)).add(write)) {
+            // The queue was removed after it was found, try again with a new queue.
+        }
+        return write.done;
+    }
+
+    /**
+     * Returns a future that completes when all writes to the specified file that have been
+     * submitted so far are completed, successfully or not.
+     *
+     * @param path The file.
+     * @return A future that completes when the file has no more pending writes.
+     */
+    CompletableFuture<Void> whenWritten(String path) {
+        PathQueue queue = queues.get(keyOf(path));
+        if (queue == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return queue.whenWritten();
+    }
+
+    /**
+     * @return A key that is the same for all paths to the same file.
+     */
+    static String keyOf(String path) {
+        return Paths.get(path).normalize().toString();
+    }
+
+    private static BatchWriter blockingWriter(FileHandler fileHandler) {
+        return (path, contents, sync) -> {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            try {
+                fileHandler.write(path, contents, sync);
+                written.complete(null);
+            } catch (IOException | RuntimeException failure) {
+                written.completeExceptionally(failure);
+            }
+            return written;
+        };
+    }
+
+    /**
+     * @return The exception that failed a write, without the <code>CompletionException</code>
+     *         added by the stage that passed it on.
+     */
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    private static void completeAll(List<PendingWrite> writes, Throwable failure) {
+        for (PendingWrite write : writes) {
+            if (failure == null) {
+                write.done.complete(null);
+            } else {
+                write.done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of contents to a file.
+     */
+    private interface BatchWriter {
+        /**
+         * @return A future that completes when all contents have been written, or fails if any
+         *         of them could not be written.
+         */
+        CompletableFuture<Void> write(String path, List<String> contents, boolean sync);
+    }
+
+    private static class PendingWrite {
+        private final String content;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingWrite(String content) {
+            this.content = content;
+        }
+    }
+
+    private class PathQueue {
+        private final String key;
+        private final String path;
+        private final Queue<PendingWrite> pending = new ArrayDeque<>();
+        private boolean flushScheduled;
+        private boolean removed;
+        private ScheduledFuture<?> lingerTimer;
+        private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+        PathQueue(String key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+
+        /**
+         * @return <code>false</code> if this queue has been removed and the write was not added.
+         */
+        boolean add(PendingWrite write) {
+            boolean flushNow;
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                pending.add(write);
+                lastWrite = write.done;
+                if (flushScheduled) {
+                    flushNow = pending.size() >= maxBatchSize && lingerTimer != null;
+                    if (flushNow) {
+                        lingerTimer.cancel(false);
+                        lingerTimer = null;
+                    }
+                } else {
+                    flushScheduled = true;
+                    flushNow = lingerMillis == 0 || pending.size() >= maxBatchSize;
+                    if (!flushNow) {
+                        lingerTimer = timer.schedule(this::lingerExpired, lingerMillis,
+                                                     TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            if (flushNow) {
+                submitFlush();
+            }
+            return true;
+        }
+
+        synchronized CompletableFuture<Void> whenWritten() {
+            return lastWrite.handle((ignoredResult, ignoredFailure) -> null);
+        }
+
+        private void lingerExpired() {
+            synchronized (this) {
+                if (lingerTimer == null) {
+                    return;
+                }
+                lingerTimer = null;
+            }
+            submitFlush();
+        }
+
+        private void submitFlush() {
+            try {
+                ioPool.execute(this::flush);
+            } catch (RuntimeException rejected) {
+                List<PendingWrite> failed;
+                synchronized (this) {
+                    failed = new ArrayList<>(pending);
+                    pending.clear();
+                    flushScheduled = false;
+                    lingerTimer = null;
+                    remove();
+                }
+                completeAll(failed, rejected);
+            }
+        }
+
+        private void flush() {
+            List<PendingWrite> batch = new ArrayList<>();
+            synchronized (this) {
+                while (!pending.isEmpty() && batch.size() < maxBatchSize) {
+                    batch.add(pending.remove());
+                }
+            }
+            write(batch).whenComplete((ignoredResult, ignoredFailure) -> {
+                boolean more;
+                synchronized (this) {
+                    more = !pending.isEmpty();
+                    flushScheduled = more;
+                    if (!more) {
+                        remove();
+                    }
+                }
+                if (more) {
+                    submitFlush();
+                }
+            });
+        }
+
+        private CompletableFuture<Void> write(List<PendingWrite> batch) {
+            List<String> contents = new ArrayList<>(batch.size());
+            batch.forEach(write -> contents.add(write.content));
+            return batchWriter.write(path, contents, sync).handle((ignored, batchFailed) -> {
+                if (batchFailed == null) {
+                    completeAll(batch, null);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                if (unwrap(batchFailed) instanceof MalformedContentException) {
+                    return writeOneByOne(batch, 0);
+                }
+                completeAll(batch, unwrap(batchFailed));
+                return CompletableFuture.<Void>completedFuture(null);
+            }).thenCompose(Function.identity());
+        }
+
+        /**
+         * Must be called holding the lock of this queue, when it has no pending writes and no
+         * flush is scheduled. Writes arriving later are added to a new queue.
+         */
+        private void remove() {
+            removed = true;
+            queues.remove(key, this);
+        }
+
+        private CompletableFuture<Void> writeOneByOne(List<PendingWrite> batch, int first) {
+            if (first == batch.size()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            PendingWrite write = batch.get(first);
+            return batchWriter.write(path, Collections.singletonList(write.content), sync)
+                    .handle((ignored, failure) -> {
+                        if (failure == null) {
+                            write.done.complete(null);
+                        } else {
+                            write.done.completeExceptionally(unwrap(failure));
+                        }
+                        return writeOneByOne(batch, first + 1);
+                    }).thenCompose(Function.identity());
+        }
+    }
+}
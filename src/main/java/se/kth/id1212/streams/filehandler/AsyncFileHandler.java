@@ -0,0 +1,384 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes files like the corresponding methods of {@link FileHandler}, but with
+ * <code>AsynchronousFileChannel</code>s. The methods return at once, with a future that completes
+ * when the I/O is done, and no thread is occupied while an operation waits for the lock of its
+ * file. Text, hex, object, list and compressed files are encoded exactly as by
+ * {@link FileHandler}, a file written by one of the handlers can be read by the other, and reads
+ * deliver the same content.
+ * <p>
+ * Reads and writes of the same file are ordered by locks that are acquired without blocking, see
+ * {@link AsyncPathLocks}. The locks are shared with the file handler specified when this handler
+ * is created, whose operations acquire them in addition to their own locks. An operation of the
+ * file handler, for example a copy or a ranged read, therefore never runs concurrently with a
+ * conflicting read or write of this handler. Operations of this handler do not wait for
+ * operations of other file handlers. Reads do not use the read cache of the file handler, but
+ * writes invalidate it. Where the JVM emulates asynchronous file
+ * I/O with a thread pool, as it does on Linux, the I/O itself is performed by the threads of the
+ * executor specified when the handler is created.
+ */
+public class AsyncFileHandler {
+    private static final int BLOCK_SIZE = 8 * FileHandler.CHUNK_SIZE;
+    private static final Set<OpenOption> APPEND_OPTIONS
+            = Collections.unmodifiableSet(EnumSet.of(StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE));
+    private static final Set<OpenOption> READ_OPTIONS
+            = Collections.singleton(StandardOpenOption.READ);
+    private final FileHandler fileHandler;
+    private final ExecutorService ioExecutor;
+    private final AsyncPathLocks locks;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param fileHandler Resolves paths against its working directory, is notified of writes, so
+     *                    that its caches stay correct, and shares the locks of this handler.
+     * @param ioExecutor  Runs the completion handlers of the file channels, and, where the JVM
+     *                    emulates asynchronous file I/O, the I/O itself. Must not run operations of
+     *                    the file handler, since they may block waiting for a lock that is
+     *                    released only when an operation of this handler completes.
+     */
+    public AsyncFileHandler(FileHandler fileHandler, ExecutorService ioExecutor) {
+        this.fileHandler = fileHandler;
+        this.ioExecutor = ioExecutor;
+        this.locks = fileHandler.getAsyncLocks();
+    }
+
+    /**
+     * Appends all the specified contents to the specified file, in the specified order. The
+     * contents are encoded before the file is locked, a content that does not have the format
+     * required by the file's extension fails the write before anything is written.
+     *
+     * @param path     The path of the file to which the contents shall be written.
+     * @param contents The contents that shall be written.
+     * @param sync     If <code>true</code>, the returned future does not complete until all
+     *                 contents have been forced to the storage device.
+     * @return A future that completes when the contents have been written, or fails with the
+     *         <code>IOException</code> that stopped the write.
+     * @see FileHandler#write(java.lang.String, java.util.List, boolean)
+     */
+    public CompletableFuture<Void> write(String path, List<String> contents, boolean sync) {
+        Path file = fileHandler.createAbsolutePathFromPathRelativeToWorkingDir(path);
+        ByteBuffer encoded;
+        try {
+            encoded = encode(file.toString(), contents);
+        } catch (IOException | RuntimeException malformed) {
+            return failed(malformed);
+        }
+        if (encoded == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return locks.lock(file, true)
+                .thenCompose(locked -> append(file, encoded, sync))
+                .thenRun(() -> updateLineIndexIfText(file))
+                .whenComplete((ignoredResult, ignoredFailure) -> {
+                    fileHandler.invalidateWritten(file);
+                    locks.unlock(file, true);
+                });
+    }
+
+    /**
+     * Reads the content of the specified file and hands it to the specified consumer in chunks of
+     * at most {@link FileHandler#CHUNK_SIZE} characters. Text and hex files are decoded one block
+     * at a time, and are never held in memory as a whole. The blocks of compressed files are
+     * inflated one at a time, in order, by the thread that completed the read. Object and list
+     * files are read completely before they are decoded.
+     *
+     * @param path      The path of the file to read.
+     * @param showChunk Receives the file content, one chunk at a time. Is called by the thread
+     *                  that completed the read of a block. Is not called at all if the file is
+     *                  empty or has an unknown extension. If it throws an exception, the read is
+     *                  stopped and fails with that exception.
+     * @return A future that completes when the last chunk has been handed to
+     *         <code>showChunk</code>.
+     * @see FileHandler#read(java.lang.String, java.util.function.Consumer)
+     */
+    public CompletableFuture<Void> read(String path, Consumer<String> showChunk) {
+        Path file = fileHandler.createAbsolutePathFromPathRelativeToWorkingDir(path);
+        ChunkWriter chunks = new ChunkWriter(showChunk);
+        BlockDecoder decoder = decoderFor(file.toString(), chunks);
+        if (decoder == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return locks.lock(file, false)
+                .thenCompose(locked -> readBlocks(file, decoder))
+                .thenRun(chunks::flush)
+                .whenComplete((ignoredResult, ignoredFailure) -> locks.unlock(file, false));
+    }
+
+    private ByteBuffer encode(String file, List<String> contents) throws IOException {
+        if (file.endsWith(FileHandler.TEXT_FILE_EXTENSION)) {
+            return ByteBuffer.wrap(FileHandler.encodeText(contents));
+        } else if (file.endsWith(FileHandler.HEX_FILE_EXTENSION)) {
+            return ByteBuffer.wrap(FileHandler.encodeHex(contents));
+        } else if (file.endsWith(FileHandler.COMPRESSED_TEXT_FILE_EXTENSION)) {
+            return CompressedFile.compress(FileHandler.encodeText(contents));
+        } else if (file.endsWith(FileHandler.COMPRESSED_HEX_FILE_EXTENSION)) {
+            return CompressedFile.compress(FileHandler.encodeHex(contents));
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (file.endsWith(FileHandler.OBJ_FILE_EXTENSION)) {
+            for (String content : contents) {
+                ObjectOutputStream toBuffer = new ObjectOutputStream(encoded);
+                toBuffer.writeObject(Arrays.asList(content.split(" ")));
+                toBuffer.flush();
+            }
+        } else if (file.endsWith(FileHandler.LIST_FILE_EXTENSION)) {
+            for (String content : contents) {
+                StringListCodec.writeRecord(
+                        Arrays.asList(content.split(FileHandler.LINE_SEPARATOR)), true, encoded);
+            }
+        } else {
+            return null;
+        }
+        return ByteBuffer.wrap(encoded.toByteArray());
+    }
+
+    private BlockDecoder decoderFor(String file, ChunkWriter chunks) {
+        if (file.endsWith(FileHandler.TEXT_FILE_EXTENSION)) {
+            return new TextBlockDecoder(chunks);
+        } else if (file.endsWith(FileHandler.HEX_FILE_EXTENSION)) {
+            return new HexBlockDecoder(chunks);
+        } else if (file.endsWith(FileHandler.COMPRESSED_TEXT_FILE_EXTENSION)) {
+            return new CompressedFile.FrameDecoder(new TextBlockDecoder(chunks));
+        } else if (file.endsWith(FileHandler.COMPRESSED_HEX_FILE_EXTENSION)) {
+            return new CompressedFile.FrameDecoder(new HexBlockDecoder(chunks));
+        } else if (file.endsWith(FileHandler.OBJ_FILE_EXTENSION)) {
+            return new WholeFileDecoder(fromFile -> {
+                try (ObjectInputStream fromBuffer = new ObjectInputStream(fromFile)) {
+                    List<String> contentAsList = (List<String>)fromBuffer.readObject();
+                    contentAsList.forEach(chunks::appendElement);
+                } catch (ClassNotFoundException cnfe) {
+                    InvalidClassException unknownClass
+                            = new InvalidClassException(cnfe.getMessage());
+                    unknownClass.initCause(cnfe);
+                    throw unknownClass;
+                }
+            });
+        } else if (file.endsWith(FileHandler.LIST_FILE_EXTENSION)) {
+            return new WholeFileDecoder(
+                    fromFile -> StringListCodec.readRecords(fromFile, chunks::appendElement));
+        }
+        return null;
+    }
+
+    private void updateLineIndexIfText(Path file) {
+        if (file.toString().endsWith(FileHandler.TEXT_FILE_EXTENSION)) {
+            try {
+                fileHandler.updateLineIndexIfExists(file);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> append(Path file, ByteBuffer content, boolean sync) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+                    file, APPEND_OPTIONS, ioExecutor, new FileAttribute<?>[0]);
+            new BlockWriter(channel, written, content, sync).start();
+        } catch (IOException | RuntimeException notStarted) {
+            written.completeExceptionally(notStarted);
+        }
+        return written;
+    }
+
+    private CompletableFuture<Void> readBlocks(Path file, BlockDecoder decoder) {
+        CompletableFuture<Void> read = new CompletableFuture<>();
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+                    file, READ_OPTIONS, ioExecutor, new FileAttribute<?>[0]);
+            new BlockReader(channel, read, decoder).start();
+        } catch (IOException | RuntimeException notStarted) {
+            read.completeExceptionally(notStarted);
+        }
+        return read;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable failure) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+    /**
+     * Decodes a file that must be read completely before it can be decoded.
+     */
+    private interface StreamDecoder {
+        void decode(ByteArrayInputStream fromFile) throws IOException;
+    }
+
+    private static class WholeFileDecoder implements BlockDecoder {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private final StreamDecoder streamDecoder;
+
+        WholeFileDecoder(StreamDecoder streamDecoder) {
+            this.streamDecoder = streamDecoder;
+        }
+
+        @Override
+        public void decode(ByteBuffer block, boolean endOfFile) throws IOException {
+            content.write(block.array(), block.arrayOffset() + block.position(),
+                          block.remaining());
+            block.position(block.limit());
+            if (endOfFile) {
+                streamDecoder.decode(new ByteArrayInputStream(content.toByteArray()));
+            }
+        }
+    }
+
+    /**
+     * Performs a sequence of reads or writes on a channel, each started by the completion of the
+     * previous one. The channel is closed when the sequence is done.
+     */
+    private abstract static class ChannelTask implements CompletionHandler<Integer, Void> {
+        protected final AsynchronousFileChannel channel;
+        private final CompletableFuture<Void> done;
+
+        ChannelTask(AsynchronousFileChannel channel, CompletableFuture<Void> done) {
+            this.channel = channel;
+            this.done = done;
+        }
+
+        @Override
+        public void failed(Throwable failure, Void attachment) {
+            finish(failure);
+        }
+
+        protected void finish(Throwable failure) {
+            try {
+                channel.close();
+            } catch (IOException closeFailed) {
+                if (failure == null) {
+                    failure = closeFailed;
+                }
+            }
+            if (failure == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static class BlockWriter extends ChannelTask {
+        private final ByteBuffer content;
+        private final boolean sync;
+        private long position;
+
+        BlockWriter(AsynchronousFileChannel channel, CompletableFuture<Void> done,
+                    ByteBuffer content, boolean sync) {
+            super(channel, done);
+            this.content = content;
+            this.sync = sync;
+        }
+
+        void start() throws IOException {
+            position = channel.size();
+            writeRemaining();
+        }
+
+        @Override
+        public void completed(Integer count, Void attachment) {
+            position += count;
+            try {
+                writeRemaining();
+            } catch (IOException | RuntimeException failure) {
+                finish(failure);
+            }
+        }
+
+        private void writeRemaining() throws IOException {
+            if (content.hasRemaining()) {
+                channel.write(content, position, null, this);
+                return;
+            }
+            if (sync) {
+                channel.force(true);
+            }
+            finish(null);
+        }
+    }
+
+    private static class BlockReader extends ChannelTask {
+        private final BlockDecoder decoder;
+        private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        private long position;
+
+        BlockReader(AsynchronousFileChannel channel, CompletableFuture<Void> done,
+                    BlockDecoder decoder) {
+            super(channel, done);
+            this.decoder = decoder;
+        }
+
+        void start() {
+            channel.read(block, position, null, this);
+        }
+
+        @Override
+        public void completed(Integer count, Void attachment) {
+            boolean endOfFile = count < 0;
+            try {
+                block.flip();
+                decoder.decode(block, endOfFile);
+                block.compact();
+                if (endOfFile) {
+                    finish(null);
+                } else {
+                    position += count;
+                    channel.read(block, position, null, this);
+                }
+            } catch (IOException | RuntimeException failure) {
+                finish(failure);
+            }
+        }
+    }
+}
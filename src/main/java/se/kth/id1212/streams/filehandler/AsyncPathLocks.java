@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read/write locks for files, that are acquired without blocking. A lock request returns a future
+ * that completes when the lock is granted, instead of waiting in the requesting thread. Like the
+ * locks of {@link PathLocks}, any number of readers of a file can proceed concurrently, and
+ * requests are granted in arrival order. A lock is not owned by a thread, it can be released by
+ * any thread. There is one lock per file that is in use, it is removed when it is no longer used.
+ */
+class AsyncPathLocks {
+    private final Map<Path, LockState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Requests the lock of the specified file.
+     *
+     * @param file      The file to lock.
+     * @param exclusive <code>true</code> for the write lock, <code>false</code> for the read lock.
+     * @return A future that completes when the lock is granted. The lock must be released with
+     *         {@link #unlock(Path, boolean)}.
+     */
+    CompletableFuture<Void> lock(Path file, boolean exclusive) {
+        Waiter waiter = new Waiter(exclusive);
+        boolean[] admitted = new boolean[1];
+        states.compute(keyOf(file), (key, state) -> {
+            LockState lockState = state == null ? new LockState() : state;
+            admitted[0] = lockState.request(waiter);
+            return lockState;
+        });
+        if (admitted[0]) {
+            waiter.granted.complete(null);
+        }
+        return waiter.granted;
+    }
+
+    /**
+     * Acquires the lock of the specified file only if it can be granted at once. The request is
+     * never queued.
+     *
+     * @param file      The file to lock.
+     * @param exclusive <code>true</code> for the write lock, <code>false</code> for the read lock.
+     * @return <code>true</code> if the lock was granted, in which case it must be released with
+     *         {@link #unlock(Path, boolean)}.
+     */
+    boolean tryLock(Path file, boolean exclusive) {
+        Waiter waiter = new Waiter(exclusive);
+        boolean[] admitted = new boolean[1];
+        states.compute(keyOf(file), (key, state) -> {
+            LockState lockState = state == null ? new LockState() : state;
+            admitted[0] = lockState.requestIfFree(waiter);
+            return lockState.isIdle() ? null : lockState;
+        });
+        return admitted[0];
+    }
+
+    /**
+     * Withdraws a request made by {@link #lock(Path, boolean)}, that the requester no longer
+     * waits for. If the lock has already been granted, it is released.
+     *
+     * @param file      The file whose lock was requested.
+     * @param request   The future returned when the lock was requested.
+     * @param exclusive <code>true</code> if the write lock was requested.
+     */
+    void withdraw(Path file, CompletableFuture<Void> request, boolean exclusive) {
+        List<Waiter> admitted = new ArrayList<>();
+        states.computeIfPresent(keyOf(file), (key, state) -> {
+            if (!state.withdraw(request, admitted)) {
+                state.release(exclusive, admitted);
+            }
+            return state.isIdle() ? null : state;
+        });
+        admitted.forEach(waiter -> waiter.granted.complete(null));
+    }
+
+    /**
+     * Releases a lock granted by {@link #lock(Path, boolean)}, and grants the lock to the
+     * following requests, if they can proceed.
+     *
+     * @param file      The locked file.
+     * @param exclusive <code>true</code> if the write lock is released.
+     */
+    void unlock(Path file, boolean exclusive) {
+        List<Waiter> admitted = new ArrayList<>();
+        states.computeIfPresent(keyOf(file), (key, state) -> {
+            state.release(exclusive, admitted);
+            return state.isIdle() ? null : state;
+        });
+        admitted.forEach(waiter -> waiter.granted.complete(null));
+    }
+
+    private static Path keyOf(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    private static class Waiter {
+        private final boolean exclusive;
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+
+        Waiter(boolean exclusive) {
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * The state of one lock. Is only accessed inside the atomic map operations, which means no
+     * other synchronization is needed. Futures are completed after the map operation, so that
+     * the actions depending on them do not run while the map entry is locked.
+     */
+    private static class LockState {
+        private final Queue<Waiter> waiting = new ArrayDeque<>();
+        private int readers;
+        private boolean writing;
+
+        /**
+         * @return <code>true</code> if the request is granted at once, <code>false</code> if it
+         *         is queued.
+         */
+        boolean request(Waiter waiter) {
+            if (waiting.isEmpty() && canEnter(waiter)) {
+                enter(waiter);
+                return true;
+            }
+            waiting.add(waiter);
+            return false;
+        }
+
+        /**
+         * @return <code>true</code> if the request is granted, <code>false</code> if it would
+         *         have to wait, in which case it is not queued.
+         */
+        boolean requestIfFree(Waiter waiter) {
+            if (waiting.isEmpty() && canEnter(waiter)) {
+                enter(waiter);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return <code>true</code> if the request was still waiting and is removed,
+         *         <code>false</code> if it has already been granted.
+         */
+        boolean withdraw(CompletableFuture<Void> request, List<Waiter> admitted) {
+            if (!waiting.removeIf(waiter -> waiter.granted == request)) {
+                return false;
+            }
+            admitWaiting(admitted);
+            return true;
+        }
+
+        void release(boolean exclusive, List<Waiter> admitted) {
+            if (exclusive) {
+                writing = false;
+            } else {
+                readers--;
+            }
+            admitWaiting(admitted);
+        }
+
+        private void admitWaiting(List<Waiter> admitted) {
+            while (!waiting.isEmpty() && canEnter(waiting.peek())) {
+                Waiter next = waiting.remove();
+                enter(next);
+                admitted.add(next);
+            }
+        }
+
+        boolean isIdle() {
+            return readers == 0 && !writing && waiting.isEmpty();
+        }
+
+        private boolean canEnter(Waiter waiter) {
+            return !writing && (!waiter.exclusive || readers == 0);
+        }
+
+        private void enter(Waiter waiter) {
+            if (waiter.exclusive) {
+                writing = true;
+            } else {
+                readers++;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+/**
+ * Collects file content and hands it to a consumer each time a full chunk is available. No chunk
+ * is longer than {@link FileHandler#CHUNK_SIZE} characters.
+ */
+class ChunkWriter {
+    private static final int CHUNK_SIZE = FileHandler.CHUNK_SIZE;
+    private static final String ELEMENT_SEPARATOR = FileHandler.LINE_SEPARATOR;
+    private final Consumer<String> showChunk;
+    private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE);
+    private boolean previousWasCarriageReturn = false;
+
+    ChunkWriter(Consumer<String> showChunk) {
+        this.showChunk = showChunk;
+    }
+
+    void append(char c) {
+        chunk.append(c);
+        flushIfFull();
+    }
+
+    /**
+     * Appends the specified text. Text that does not fit in the current chunk is split, so that
+     * no chunk is longer than the maximum chunk size.
+     */
+    void append(String s) {
+        int start = 0;
+        while (s.length() - start > CHUNK_SIZE - chunk.length()) {
+            int end = start + CHUNK_SIZE - chunk.length();
+            chunk.append(s, start, end);
+            flush();
+            start = end;
+        }
+        chunk.append(s, start, s.length());
+        flushIfFull();
+    }
+
+    void appendElement(String element) {
+        append(element);
+        append(ELEMENT_SEPARATOR);
+    }
+
+    /**
+     * Appends all text read from the specified reader, with each line terminator replaced by one
+     * element separator.
+     */
+    void appendLines(Reader fromFile) throws IOException {
+        char[] buf = new char[CHUNK_SIZE];
+        for (int count = fromFile.read(buf); count != -1; count = fromFile.read(buf)) {
+            appendLines(buf, count);
+        }
+    }
+
+    /**
+     * Appends the specified text like {@link #appendLines(java.io.Reader)}. Text that is read in
+     * parts can be appended by calling this method once for each part, a line terminator that is
+     * split between two parts is still replaced by one separator.
+     */
+    void appendLines(char[] buf, int count) {
+        for (int i = 0; i < count; i++) {
+            char c = buf[i];
+            if (c == '\n' && previousWasCarriageReturn) {
+                previousWasCarriageReturn = false;
+                continue;
+            }
+            previousWasCarriageReturn = c == '\r';
+            if (c == '\n' || c == '\r') {
+                append(ELEMENT_SEPARATOR);
+            } else {
+                append(c);
+            }
+        }
+    }
+
+    void deliverInChunks(String content) {
+        flush();
+        for (int start = 0; start < content.length(); start += CHUNK_SIZE) {
+            showChunk.accept(content.substring(start, Math.min(content.length(),
+                                                               start + CHUNK_SIZE)));
+        }
+    }
+
+    void deliver(String completeChunk) {
+        flush();
+        showChunk.accept(completeChunk);
+    }
+
+    void flush() {
+        if (chunk.length() > 0) {
+            showChunk.accept(chunk.toString());
+            chunk.setLength(0);
+        }
+    }
+
+    private void flushIfFull() {
+        if (chunk.length() >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A file whose content is stored in blocks that are compressed independently of each other. Each
+ * block is stored as a frame: the uncompressed and the compressed length of the block, as two
+ * <code>int</code>s, followed by the block deflated with <code>java.util.zip</code>. The content
+ * of a block is encoded like in the corresponding uncompressed file. Content is appended by
+ * adding frames, existing frames are never rewritten.
+ * <p>
+ * When the file is opened, a block index is built from the frame headers, only the headers are
+ * read. The index gives the position of the block containing any uncompressed offset, which means
+ * reading can start anywhere in the file without inflating the preceding blocks. Since each block
+ * can be inflated on its own, the blocks are inflated in parallel when the file is read. A frame
+ * that is not complete, since it is being appended, is ignored.
+ */
+class CompressedFile implements Closeable {
+    /**
+     * The maximum uncompressed size of a block, a multiple of the size of the values in a hex
+     * file.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int MAX_COMPRESSED_SIZE = BLOCK_SIZE + BLOCK_SIZE / 8 + 64;
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    private static final ThreadLocal<Deflater> DEFLATERS
+            = ThreadLocal.withInitial(() -> new Deflater(COMPRESSION_LEVEL));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+    private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0);
+    private final Path file;
+    private final FileChannel fromFile;
+    private final BlockIndex index;
+
+    /**
+     * Opens the specified file for reading, and builds its block index.
+     *
+     * @param file The compressed file.
+     * @throws IOException If failed to read the file, or if a frame header is corrupt.
+     */
+    CompressedFile(Path file) throws IOException {
+        this.file = file;
+        this.fromFile = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.index = BlockIndex.scan(file, fromFile);
+        } catch (IOException | RuntimeException failed) {
+            fromFile.close();
+            throw failed;
+        }
+    }
+
+    /**
+     * Compresses the specified content into frames, ready to be appended to a compressed file.
+     * The content is split into blocks of at most {@link #BLOCK_SIZE} bytes.
+     *
+     * @param content The uncompressed content.
+     * @return The frames.
+     */
+    static ByteBuffer compress(byte[] content) {
+        int noOfBlocks = (content.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ByteBuffer frames = ByteBuffer.allocate(noOfBlocks * (HEADER_SIZE + MAX_COMPRESSED_SIZE));
+        Deflater deflater = DEFLATERS.get();
+        for (int start = 0; start < content.length; start += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, content.length - start);
+            deflater.reset();
+            deflater.setInput(content, start, blockLength);
+            deflater.finish();
+            int headerPosition = frames.position();
+            int dataPosition = headerPosition + HEADER_SIZE;
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                compressedLength += deflater.deflate(frames.array(), dataPosition
+                                                                     + compressedLength,
+                                                     MAX_COMPRESSED_SIZE - compressedLength);
+            }
+            frames.putInt(blockLength).putInt(compressedLength);
+            frames.position(dataPosition + compressedLength);
+        }
+        frames.flip();
+        return frames;
+    }
+
+    /**
+     * Appends the specified frames to the specified file. The file is created if it does not
+     * exist.
+     *
+     * @param file   The compressed file.
+     * @param frames Frames created by {@link #compress(byte[])}.
+     * @param sync   If <code>true</code>, this method does not return until the frames have been
+     *               forced to the storage device.
+     * @throws IOException If failed to write.
+     */
+    static void append(Path file, ByteBuffer frames, boolean sync) throws IOException {
+        try (FileChannel toFile = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.APPEND)) {
+            while (frames.hasRemaining()) {
+                toFile.write(frames);
+            }
+            if (sync) {
+                toFile.force(true);
+            }
+        }
+    }
+
+    /**
+     * @return The uncompressed size of the complete blocks in the file.
+     */
+    long size() {
+        return index.uncompressedSize();
+    }
+
+    /**
+     * Inflates the content in the specified range of uncompressed offsets, and hands it to the
+     * specified decoder, in order. The frames are read by the calling thread, and up to twice as
+     * many blocks as the pool has threads are inflated concurrently, which means memory use does
+     * not depend on the file size.
+     *
+     * @param start   The uncompressed offset of the first byte to decode.
+     * @param end     The uncompressed offset after the last byte to decode.
+     * @param pool    Inflates the blocks.
+     * @param decoder Receives the inflated content.
+     * @throws IOException If failed to read or inflate a block, or to decode the content.
+     */
+    void inflate(long start, long end, ForkJoinPool pool, BlockDecoder decoder)
+            throws IOException {
+        if (start >= end) {
+            decoder.decode(NO_BYTES, true);
+            return;
+        }
+        int firstBlock = index.blockContaining(start);
+        int endBlock = index.blockContaining(end - 1) + 1;
+        int window = 2 * pool.getParallelism();
+        Queue<CompletableFuture<ByteBuffer>> inflating = new ArrayDeque<>();
+        int nextToRead = firstBlock;
+        ByteBuffer leftover = NO_BYTES;
+        for (int block = firstBlock; block < endBlock; block++) {
+            for (; nextToRead < endBlock && inflating.size() < window; nextToRead++) {
+                byte[] compressed = readFrame(nextToRead);
+                int uncompressedLength = index.uncompressedLength(nextToRead);
+                inflating.add(CompletableFuture.supplyAsync(
+                        () -> inflateUnchecked(compressed, uncompressedLength), pool));
+            }
+            ByteBuffer inflated = join(inflating.remove());
+            long blockStart = index.uncompressedOffset(block);
+            inflated.limit((int)Math.min(inflated.limit(), end - blockStart));
+            inflated.position((int)Math.max(0, start - blockStart));
+            inflated = concat(leftover, inflated);
+            decoder.decode(inflated, block == endBlock - 1);
+            leftover = inflated;
+        }
+    }
+
+    /**
+     * Returns the uncompressed offset after the last line terminator in the file. The blocks are
+     * inflated from the end of the file, until a line terminator is found.
+     *
+     * @return The offset after the last <code>\n</code>, or zero if there is none.
+     * @throws IOException If failed to read or inflate a block.
+     */
+    long positionAfterLastLine() throws IOException {
+        for (int block = index.blockCount() - 1; block >= 0; block--) {
+            ByteBuffer inflated = inflate(readFrame(block), index.uncompressedLength(block));
+            for (int i = inflated.limit() - 1; i >= 0; i--) {
+                if (inflated.get(i) == '\n') {
+                    return index.uncompressedOffset(block) + i + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fromFile.close();
+    }
+
+    private byte[] readFrame(int block) throws IOException {
+        byte[] compressed = new byte[index.compressedLength(block)];
+        ByteBuffer buf = ByteBuffer.wrap(compressed);
+        long dataPosition = index.framePosition(block) + HEADER_SIZE;
+        while (buf.hasRemaining()) {
+            if (fromFile.read(buf, dataPosition + buf.position()) < 0) {
+                throw new IOException("Block " + block + " of " + file + " is truncated");
+            }
+        }
+        return compressed;
+    }
+
+    private static ByteBuffer inflate(byte[] compressed, int uncompressedLength)
+            throws IOException {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] inflated = new byte[uncompressedLength];
+        try {
+            int length = 0;
+            while (length < uncompressedLength && !inflater.finished()) {
+                int count = inflater.inflate(inflated, length, uncompressedLength - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != uncompressedLength || !inflater.finished()) {
+                throw new IOException("Corrupt compressed block, expected " + uncompressedLength
+                                      + " bytes but got " + length);
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("Corrupt compressed block", dfe);
+        }
+        return ByteBuffer.wrap(inflated);
+    }
+
+    private static ByteBuffer inflateUnchecked(byte[] compressed, int uncompressedLength) {
+        try {
+            return inflate(compressed, uncompressedLength);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private static ByteBuffer join(CompletableFuture<ByteBuffer> inflating) throws IOException {
+        try {
+            return inflating.join();
+        } catch (CompletionException failed) {
+            if (failed.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)failed.getCause()).getCause();
+            }
+            throw failed;
+        }
+    }
+
+    /**
+     * @return The bytes that were left by the decoder, followed by the next block.
+     */
+    private static ByteBuffer concat(ByteBuffer leftover, ByteBuffer next) {
+        if (!leftover.hasRemaining()) {
+            return next;
+        }
+        ByteBuffer both = ByteBuffer.allocate(leftover.remaining() + next.remaining());
+        both.put(leftover).put(next).flip();
+        return both;
+    }
+
+    /**
+     * The position of each frame in the file, and the uncompressed offset of its block.
+     */
+    private static class BlockIndex {
+        private long[] framePositions = new long[16];
+        private long[] uncompressedOffsets = new long[16];
+        private int blockCount;
+
+        /**
+         * Reads the header of each frame in the file.
+         */
+        static BlockIndex scan(Path file, FileChannel fromFile) throws IOException {
+            BlockIndex index = new BlockIndex();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long size = fromFile.size();
+            long position = 0;
+            long offset = 0;
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (fromFile.read(header, position + header.position()) < 0) {
+                        return index;
+                    }
+                }
+                int uncompressedLength = header.getInt(0);
+                int compressedLength = header.getInt(Integer.BYTES);
+                if (uncompressedLength <= 0 || uncompressedLength > BLOCK_SIZE
+                    || compressedLength <= 0 || compressedLength > MAX_COMPRESSED_SIZE) {
+                    throw new IOException("Corrupt frame header at position " + position
+                                          + " of " + file);
+                }
+                long nextPosition = position + HEADER_SIZE + compressedLength;
+                if (nextPosition > size) {
+                    break;
+                }
+                index.add(position, offset);
+                position = nextPosition;
+                offset += uncompressedLength;
+            }
+            index.add(position, offset);
+            index.blockCount--;
+            return index;
+        }
+
+        int blockCount() {
+            return blockCount;
+        }
+
+        long uncompressedSize() {
+            return uncompressedOffsets[blockCount];
+        }
+
+        long framePosition(int block) {
+            return framePositions[block];
+        }
+
+        long uncompressedOffset(int block) {
+            return uncompressedOffsets[block];
+        }
+
+        int uncompressedLength(int block) {
+            return (int)(uncompressedOffsets[block + 1] - uncompressedOffsets[block]);
+        }
+
+        int compressedLength(int block) {
+            return (int)(framePositions[block + 1] - framePositions[block]) - HEADER_SIZE;
+        }
+
+        /**
+         * @return The block containing the specified uncompressed offset, which must be less
+         *         than the uncompressed size.
+         */
+        int blockContaining(long offset) {
+            int found = Arrays.binarySearch(uncompressedOffsets, 0, blockCount, offset);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        private void add(long framePosition, long uncompressedOffset) {
+            if (blockCount == framePositions.length) {
+                framePositions = Arrays.copyOf(framePositions, 2 * blockCount);
+                uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, 2 * blockCount);
+            }
+            framePositions[blockCount] = framePosition;
+            uncompressedOffsets[blockCount] = uncompressedOffset;
+            blockCount++;
+        }
+    }
+
+    /**
+     * Inflates frames that are read one block of bytes at a time, without a block index, and
+     * hands the inflated content to another decoder. The blocks are inflated in the calling
+     * thread, in order.
+     */
+    static class FrameDecoder implements BlockDecoder {
+        private final BlockDecoder contentDecoder;
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private ByteBuffer compressed;
+        private int uncompressedLength;
+        private ByteBuffer leftover = NO_BYTES;
+
+        /**
+         * @param contentDecoder Receives the inflated content.
+         */
+        FrameDecoder(BlockDecoder contentDecoder) {
+            this.contentDecoder = contentDecoder;
+        }
+
+        @Override
+        public void decode(ByteBuffer block, boolean endOfFile) throws IOException {
+            while (block.hasRemaining()) {
+                if (compressed == null) {
+                    transfer(block, header);
+                    if (!header.hasRemaining()) {
+                        startFrame();
+                    }
+                } else {
+                    transfer(block, compressed);
+                    if (!compressed.hasRemaining()) {
+                        ByteBuffer inflated = concat(leftover, inflate(compressed.array(),
+                                                                       uncompressedLength));
+                        contentDecoder.decode(inflated, false);
+                        leftover = inflated;
+                        compressed = null;
+                    }
+                }
+            }
+            if (endOfFile) {
+                contentDecoder.decode(leftover, true);
+            }
+        }
+
+        private void startFrame() throws IOException {
+            uncompressedLength = header.getInt(0);
+            int compressedLength = header.getInt(Integer.BYTES);
+            if (uncompressedLength <= 0 || uncompressedLength > BLOCK_SIZE
+                || compressedLength <= 0 || compressedLength > MAX_COMPRESSED_SIZE) {
+                throw new IOException("Corrupt frame header");
+            }
+            compressed = ByteBuffer.allocate(compressedLength);
+            header.clear();
+        }
+
+        private static void transfer(ByteBuffer from, ByteBuffer to) {
+            int count = Math.min(from.remaining(), to.remaining());
+            ByteBuffer slice = from.duplicate();
+            slice.limit(slice.position() + count);
+            to.put(slice);
+            from.position(from.position() + count);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+/**
+ * The result of a copy operation, how much was copied and how fast.
+ */
+public final class CopyProgress {
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+    private static final double NANOS_PER_SECOND = 1_000_000_000;
+    private final long files;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param files        The number of copied files.
+     * @param bytes        The number of copied bytes.
+     * @param elapsedNanos The time it took to copy, in nanoseconds.
+     */
+    public CopyProgress(long files, long bytes, long elapsedNanos) {
+        this.files = files;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The number of copied files, directories are not counted.
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The number of copied bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The time it took to copy, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return The number of bytes copied per second, or zero if no time elapsed.
+     */
+    public double getBytesPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return bytes * NANOS_PER_SECOND / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Copied %d files, %d bytes in %d ms (%.1f MB/s)", files, bytes,
+                             getElapsedMillis(), getBytesPerSecond() / BYTES_PER_MEGABYTE);
+    }
+}
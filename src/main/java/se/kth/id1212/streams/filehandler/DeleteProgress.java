@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+/**
+ * How much a delete operation has deleted so far, and how fast.
+ */
+public final class DeleteProgress {
+    private static final double NANOS_PER_SECOND = 1_000_000_000;
+    private final long files;
+    private final long dirs;
+    private final long elapsedNanos;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param files        The number of deleted files.
+     * @param dirs         The number of deleted directories.
+     * @param elapsedNanos The time spent deleting, in nanoseconds.
+     */
+    public DeleteProgress(long files, long dirs, long elapsedNanos) {
+        this.files = files;
+        this.dirs = dirs;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The number of deleted files, directories are not counted.
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The number of deleted directories.
+     */
+    public long getDirs() {
+        return dirs;
+    }
+
+    /**
+     * @return The time spent deleting, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return The number of files deleted per second, or zero if no time elapsed.
+     */
+    public double getFilesPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return files * NANOS_PER_SECOND / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deleted %d files and %d directories in %d ms (%.0f files/s)", files,
+                             dirs, getElapsedMillis(), getFilesPerSecond());
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Watches directory trees with a <code>WatchService</code>, and reports changes of the files in
+ * them. Events are not reported one by one as they arrive. Instead, all changes of the same file
+ * are combined into one event, which is reported when no new events have arrived for a given
+ * debounce time, or at the latest {@link #MAX_DELAY_FACTOR} times the debounce time after the
+ * first of them. Directories created in a watched tree are watched as well. All events are
+ * reported by a single daemon thread, listeners must not block. A listener that throws an
+ * exception does not stop the event from being reported to other listeners, the failure is only
+ * counted, see {@link #getFailedDeliveries()}.
+ */
+class DirectoryWatcher implements Closeable {
+    /**
+     * Events are reported at the latest this many debounce times after they arrived, even if new
+     * events keep arriving.
+     */
+    static final int MAX_DELAY_FACTOR = 10;
+    private final WatchService watchService;
+    private final long debounceMillis;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Map<Path, List<Consumer<FileEvent>>> subscribers = new ConcurrentHashMap<>();
+    private final List<Consumer<FileEvent>> changeListeners = new CopyOnWriteArrayList<>();
+    private final Map<Path, FileEvent.Kind> pending = new LinkedHashMap<>();
+    private final LongAdder failedDeliveries = new LongAdder();
+    private final Thread eventThread;
+
+    /**
+     * Creates a new instance and starts the thread that reports events.
+     *
+     * @param debounceMillis Events are reported when no new events have arrived for this many
+     *                       milliseconds.
+     * @throws IOException If the watch service could not be created.
+     */
+    DirectoryWatcher(long debounceMillis) throws IOException {
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.eventThread = new Thread(this::reportEvents, "streams-watcher");
+        eventThread.setDaemon(true);
+        eventThread.start();
+    }
+
+    /**
+     * Starts watching the specified directory and all directories below it.
+     *
+     * @param root       An absolute and normalized path of the directory to watch.
+     * @param subscriber Receives events about files in the watched tree.
+     * @throws IOException If the tree could not be traversed.
+     */
+    void watch(Path root, Consumer<FileEvent> subscriber) throws IOException {
+        registerTree(root, false);
+        subscribers.computeIfAbsent(root, dir -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    /**
+     * Stops watching the specified directory. Directories in the tree are still watched if they
+     * belong to another watched tree.
+     *
+     * @param root The directory that was passed to {@link #watch(Path, Consumer)}.
+     * @return <code>true</code> if the directory was watched.
+     */
+    boolean unwatch(Path root) {
+        if (subscribers.remove(root) == null) {
+            return false;
+        }
+        for (Iterator<Map.Entry<WatchKey, Path>> dirs = watchedDirs.entrySet().iterator();
+             dirs.hasNext();) {
+            Map.Entry<WatchKey, Path> dir = dirs.next();
+            if (dir.getValue().startsWith(root) && subscribersOf(dir.getValue()).isEmpty()) {
+                dir.getKey().cancel();
+                dirs.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener that receives events about all watched files, no matter which tree they
+     * belong to.
+     *
+     * @param listener Receives all events.
+     */
+    void addChangeListener(Consumer<FileEvent> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * @return The number of times a subscriber or listener threw an exception when it was handed
+     *         an event.
+     */
+    long getFailedDeliveries() {
+        return failedDeliveries.sum();
+    }
+
+    /**
+     * Stops watching all directories, and stops the thread that reports events.
+     *
+     * @throws IOException If the watch service could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        eventThread.interrupt();
+    }
+
+    private void registerTree(Path root, boolean reportContent) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                watchedDirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                             StandardWatchEventKinds.ENTRY_MODIFY,
+                                             StandardWatchEventKinds.ENTRY_DELETE), dir);
+                if (reportContent && !dir.equals(root)) {
+                    addPending(dir, FileEvent.Kind.CREATED);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (reportContent) {
+                    addPending(file, FileEvent.Kind.CREATED);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void reportEvents() {
+        long oldestPendingNanos = 0;
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty()
+                               ? watchService.take()
+                               : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    if (pending.isEmpty()) {
+                        oldestPendingNanos = System.nanoTime();
+                    }
+                    collectEvents(key);
+                }
+                if (key == null || System.nanoTime() - oldestPendingNanos
+                                   >= TimeUnit.MILLISECONDS.toNanos(
+                                           MAX_DELAY_FACTOR * debounceMillis)) {
+                    deliverPending();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException stopped) {
+        }
+    }
+
+    private void collectEvents(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                addPending(dir, FileEvent.Kind.OVERFLOW);
+                continue;
+            }
+            Path file = dir.resolve((Path)event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                addPending(file, FileEvent.Kind.CREATED);
+                if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                    registerCreatedDir(file);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                addPending(file, FileEvent.Kind.DELETED);
+            } else {
+                addPending(file, FileEvent.Kind.MODIFIED);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    /**
+     * Files may have been created in a new directory before it was registered, those are reported
+     * as created.
+     */
+    private void registerCreatedDir(Path dir) {
+        try {
+            registerTree(dir, true);
+        } catch (IOException goneAlready) {
+        }
+    }
+
+    private void addPending(Path file, FileEvent.Kind kind) {
+        FileEvent.Kind earlier = pending.remove(file);
+        FileEvent.Kind combined = earlier == null ? kind : earlier.then(kind);
+        if (combined != null) {
+            pending.put(file, combined);
+        }
+    }
+
+    private void deliverPending() {
+        List<FileEvent> events = new ArrayList<>(pending.size());
+        for (Map.Entry<Path, FileEvent.Kind> change : pending.entrySet()) {
+            events.add(new FileEvent(change.getValue(), change.getKey()));
+        }
+        pending.clear();
+        for (FileEvent event : events) {
+            for (Consumer<FileEvent> listener : changeListeners) {
+                deliver(event, listener);
+            }
+            for (Consumer<FileEvent> subscriber : subscribersOf(event.getPath())) {
+                deliver(event, subscriber);
+            }
+        }
+    }
+
+    private List<Consumer<FileEvent>> subscribersOf(Path file) {
+        List<Consumer<FileEvent>> found = new ArrayList<>();
+        for (Map.Entry<Path, List<Consumer<FileEvent>>> tree : subscribers.entrySet()) {
+            if (file.startsWith(tree.getKey())) {
+                found.addAll(tree.getValue());
+            }
+        }
+        return found;
+    }
+
+    private void deliver(FileEvent event, Consumer<FileEvent> listener) {
+        try {
+            listener.accept(event);
+        } catch (RuntimeException failedListener) {
+            failedDeliveries.increment();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * The disk usage of a directory tree: the total size of the files, the number of files with each
+ * extension, and the largest files. Instances are immutable.
+ */
+public final class DiskUsage {
+    /**
+     * The maximum number of files in {@link #getLargestFiles()}.
+     */
+    public static final int NO_OF_LARGEST_FILES = 10;
+    static final DiskUsage NONE = new DiskUsage(0, 0, 0, Collections.emptyMap(),
+                                                Collections.emptyList());
+    private final long bytes;
+    private final long files;
+    private final long dirs;
+    private final Map<String, Long> filesPerExtension;
+    private final List<Map.Entry<Path, Long>> largestFiles;
+
+    private DiskUsage(long bytes, long files, long dirs, Map<String, Long> filesPerExtension,
+                      List<Map.Entry<Path, Long>> largestFiles) {
+        this.bytes = bytes;
+        this.files = files;
+        this.dirs = dirs;
+        this.filesPerExtension = filesPerExtension;
+        this.largestFiles = largestFiles;
+    }
+
+    /**
+     * @param file The file.
+     * @param size The size of the file.
+     * @return The disk usage of a single file.
+     */
+    static DiskUsage ofFile(Path file, long size) {
+        return new DiskUsage(size, 1, 0, Collections.singletonMap(extensionOf(file), 1L),
+                             Collections.singletonList(new SimpleImmutableEntry<>(file, size)));
+    }
+
+    /**
+     * @param fileSizes The sizes of the files in a directory, not including subdirectories.
+     * @return The disk usage of the directory, not including subdirectories.
+     */
+    static DiskUsage ofDir(Map<Path, Long> fileSizes) {
+        long bytes = 0;
+        Map<String, Long> extensions = new TreeMap<>();
+        PriorityQueue<Map.Entry<Path, Long>> largest = new PriorityQueue<>(
+                NO_OF_LARGEST_FILES + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<Path, Long> file : fileSizes.entrySet()) {
+            bytes += file.getValue();
+            extensions.merge(extensionOf(file.getKey()), 1L, Long::sum);
+            largest.add(new SimpleImmutableEntry<>(file));
+            if (largest.size() > NO_OF_LARGEST_FILES) {
+                largest.poll();
+            }
+        }
+        List<Map.Entry<Path, Long>> largestFirst = new ArrayList<>(largest);
+        largestFirst.sort(Map.Entry.<Path, Long>comparingByValue().reversed());
+        return new DiskUsage(bytes, fileSizes.size(), 1, Collections.unmodifiableMap(extensions),
+                             Collections.unmodifiableList(largestFirst));
+    }
+
+    /**
+     * @param other The disk usage of another tree.
+     * @return The disk usage of both this tree and the other tree.
+     */
+    DiskUsage plus(DiskUsage other) {
+        Map<String, Long> extensions = new TreeMap<>(filesPerExtension);
+        other.filesPerExtension.forEach((extension, count) -> extensions.merge(extension, count,
+                                                                               Long::sum));
+        List<Map.Entry<Path, Long>> largest = new ArrayList<>(largestFiles);
+        largest.addAll(other.largestFiles);
+        largest.sort(Map.Entry.<Path, Long>comparingByValue().reversed());
+        if (largest.size() > NO_OF_LARGEST_FILES) {
+            largest = new ArrayList<>(largest.subList(0, NO_OF_LARGEST_FILES));
+        }
+        return new DiskUsage(bytes + other.bytes, files + other.files, dirs + other.dirs,
+                             Collections.unmodifiableMap(extensions),
+                             Collections.unmodifiableList(largest));
+    }
+
+    /**
+     * @return The total size of all files, in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of files, directories are not counted.
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The number of directories, including the scanned directory itself.
+     */
+    public long getDirs() {
+        return dirs;
+    }
+
+    /**
+     * @return The number of files with each extension, for example <code>.txt</code>. Files
+     *         without extension are counted under the empty string.
+     */
+    public Map<String, Long> getFilesPerExtension() {
+        return filesPerExtension;
+    }
+
+    /**
+     * @return The sizes of the largest files, largest first.
+     */
+    public Map<Path, Long> getLargestFiles() {
+        Map<Path, Long> sizes = new LinkedHashMap<>();
+        largestFiles.forEach(file -> sizes.put(file.getKey(), file.getValue()));
+        return sizes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(bytes).append(" bytes in ").append(files).append(" files and ")
+                .append(dirs).append(" directories");
+        filesPerExtension.forEach((extension, count) -> summary.append(", ").append(
+                extension.isEmpty() ? "no extension" : extension).append(": ").append(count));
+        summary.append(System.lineSeparator()).append("Largest files:");
+        largestFiles.forEach(file -> summary.append(' ').append(file.getKey()).append(" (")
+                .append(file.getValue()).append(')'));
+        return summary.toString();
+    }
+
+    private static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot) : "";
+    }
+}
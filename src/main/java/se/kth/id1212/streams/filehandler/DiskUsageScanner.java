@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the disk usage of directory trees, with a fork/join task per directory. The usage of
+ * the files directly in each directory is cached, together with the directory's last modified
+ * time. A cached directory is not listed again until its last modified time changes, which
+ * happens when entries are created, deleted or renamed, or until it is invalidated. Since
+ * appending to a file does not change the last modified time of its directory, all writes must
+ * invalidate the directory of the written file.
+ * <p>
+ * A scan stores the usage of a directory only if the directory has not been invalidated since the
+ * scan started, since the scan may have read sizes from before the invalidation. Each cached
+ * directory has a generation, which is incremented when the directory is invalidated, and a
+ * directory being scanned is cached as not scanned until the scan is done. Invalidated trees are
+ * counted for the whole scanner.
+ */
+class DiskUsageScanner {
+    private final Map<Path, CachedDir> cache = new ConcurrentHashMap<>();
+    private final AtomicLong treeInvalidations = new AtomicLong();
+
+    /**
+     * Computes the disk usage of the specified file or directory tree. Symbolic links are not
+     * followed.
+     *
+     * @param path An absolute and normalized path of the file or directory.
+     * @param base The paths of the largest files are relative to this directory.
+     * @param pool Scans the directories of the tree.
+     * @return The disk usage.
+     * @throws IOException If the specified path could not be read.
+     */
+    DiskUsage scan(Path path, Path base, ForkJoinPool pool) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+                                                         LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isDirectory()) {
+            return DiskUsage.ofFile(base.relativize(path), attrs.size());
+        }
+        try {
+            return pool.invoke(new DirScan(path, base));
+        } catch (UncheckedIOException failedScan) {
+            throw failedScan.getCause();
+        }
+    }
+
+    /**
+     * Removes the cached usage of the specified directory.
+     *
+     * @param dir An absolute and normalized path of the directory.
+     */
+    void invalidate(Path dir) {
+        cache.computeIfPresent(dir, (ignored, cached) -> cached.invalidated());
+    }
+
+    /**
+     * Removes the cached usage of the specified directory and all directories below it.
+     *
+     * @param dir An absolute and normalized path of the directory.
+     */
+    void invalidateTree(Path dir) {
+        treeInvalidations.incrementAndGet();
+        cache.keySet().removeIf(cached -> cached.startsWith(dir));
+    }
+
+    private static class CachedDir {
+        private static final CachedDir NOT_SCANNED = new CachedDir(0, null, null, null);
+        private final long generation;
+        private final FileTime lastModified;
+        private final DiskUsage files;
+        private final List<Path> subdirs;
+
+        CachedDir(long generation, FileTime lastModified, DiskUsage files, List<Path> subdirs) {
+            this.generation = generation;
+            this.lastModified = lastModified;
+            this.files = files;
+            this.subdirs = subdirs;
+        }
+
+        boolean isScannedAt(FileTime lastModified) {
+            return lastModified.equals(this.lastModified);
+        }
+
+        CachedDir invalidated() {
+            return new CachedDir(generation + 1, null, null, null);
+        }
+
+        CachedDir scanned(FileTime lastModified, DiskUsage files, List<Path> subdirs) {
+            return new CachedDir(generation, lastModified, files, subdirs);
+        }
+    }
+
+    /**
+     * Computes the usage of one directory, from the cache if possible, and adds the usage of its
+     * subdirectories, which are scanned in parallel.
+     */
+    private class DirScan extends RecursiveTask<DiskUsage> {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final Path base;
+
+        DirScan(Path dir, Path base) {
+            this.dir = dir;
+            this.base = base;
+        }
+
+        @Override
+        protected DiskUsage compute() {
+            CachedDir scanned;
+            try {
+                scanned = scanDir();
+            } catch (NoSuchFileException deletedDuringScan) {
+                return DiskUsage.NONE;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            List<DirScan> subdirScans = new ArrayList<>();
+            for (Path subdir : scanned.subdirs) {
+                subdirScans.add(new DirScan(subdir, base));
+            }
+            invokeAll(subdirScans);
+            DiskUsage usage = scanned.files;
+            for (DirScan subdirScan : subdirScans) {
+                usage = usage.plus(subdirScan.join());
+            }
+            return usage;
+        }
+
+        private CachedDir scanDir() throws IOException {
+            FileTime lastModified = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS);
+            long treeGeneration = treeInvalidations.get();
+            CachedDir cached = cache.computeIfAbsent(dir, ignored -> CachedDir.NOT_SCANNED);
+            if (cached.isScannedAt(lastModified)) {
+                return cached;
+            }
+            Map<Path, Long> fileSizes = new HashMap<>();
+            List<Path> subdirs = new ArrayList<>();
+            try {
+                listDir(fileSizes, subdirs);
+            } catch (IOException | RuntimeException failedScan) {
+                cache.remove(dir, CachedDir.NOT_SCANNED);
+                throw failedScan;
+            }
+            CachedDir scanned = cached.scanned(lastModified, DiskUsage.ofDir(fileSizes), subdirs);
+            cache.compute(dir, (ignored, current) -> {
+                boolean invalidated = current == null || current.generation != cached.generation
+                                      || treeInvalidations.get() != treeGeneration;
+                return invalidated ? current : scanned;
+            });
+            return scanned;
+        }
+
+        private void listDir(Map<Path, Long> fileSizes, List<Path> subdirs) throws IOException {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (LineIndex.isIndexFile(entry)) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                                                     LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException deletedDuringScan) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        subdirs.add(entry);
+                    } else {
+                        fileSizes.put(base.relativize(entry), attrs.size());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.file.Path;
+
+/**
+ * A change of a file in a watched directory. Changes of the same file that happen close in time
+ * are reported as one event, see {@link Kind#then(Kind)}.
+ */
+public final class FileEvent {
+    private final Kind kind;
+    private final Path path;
+
+    /**
+     * The kinds of changes.
+     */
+    public enum Kind {
+        /**
+         * The file was created.
+         */
+        CREATED,
+
+        /**
+         * The content of the file was changed.
+         */
+        MODIFIED,
+
+        /**
+         * The file was deleted.
+         */
+        DELETED,
+
+        /**
+         * Events were lost, the path is the watched directory where they were lost. Anything in
+         * that directory may have changed.
+         */
+        OVERFLOW;
+
+        /**
+         * Combines this change with a later change of the same file. A file that was created and
+         * then modified was created, a file that was deleted and then created was modified, and a
+         * file that was created and then deleted was never there.
+         *
+         * @param later The later change.
+         * @return The combined change, or <code>null</code> if there is no change at all.
+         */
+        public Kind then(Kind later) {
+            if (this == OVERFLOW || later == OVERFLOW) {
+                return OVERFLOW;
+            }
+            if (this == CREATED) {
+                return later == DELETED ? null : CREATED;
+            }
+            return later == CREATED ? MODIFIED : later;
+        }
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param kind The kind of change.
+     * @param path The changed file.
+     */
+    public FileEvent(Kind kind, Path path) {
+        this.kind = kind;
+        this.path = path;
+    }
+
+    /**
+     * @return The kind of change.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The changed file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + path;
+    }
+}
@@ -27,31 +27,68 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
- * Defines the functionality of the <code>filehandler</code> package.
+ * Defines the functionality of the <code>filehandler</code> package. All methods are thread safe.
+ * Any number of threads may read the same file concurrently, while a thread writing a file has
+ * exclusive access to it. Threads waiting to write a file are let in in arrival order.
  */
 public class FileHandler {
+    private static final PathLocks LOCKS = new PathLocks();
     private final String root = ".";
     private Path workingDir = Paths.get(root);
-    private static final int HEX_RADIX = 16;
-    private static final String LINE_SEPARATOR = " ";
+    private final ReadCache readCache;
+    private final DiskUsageScanner diskUsageScanner = new DiskUsageScanner();
+    private final long watchDebounceMillis;
+    private final ForkJoinPool inflatePool;
+    private DirectoryWatcher watcher;
+    private volatile PathLocks locks = LOCKS;
+    private AsyncPathLocks asyncLocks;
+    static final String LINE_SEPARATOR = " ";
+
+    /**
+     * The maximum number of characters in each chunk delivered by
+     * {@link #read(java.lang.String, java.util.function.Consumer)}.
+     */
+    public static final int CHUNK_SIZE = 8192;
 
     /**
      * Files with this extension are supposed to contain text.
@@ -69,6 +106,80 @@ public class FileHandler {
      */
     public static final String HEX_FILE_EXTENSION = ".dat";
 
+    /**
+     * Files with this extension contain lists of strings in a compact binary format, with
+     * varint length prefixes and UTF-8 encoded strings. Unlike files with the extension
+     * {@link #OBJ_FILE_EXTENSION}, there can be any number of write operations per file.
+     */
+    public static final String LIST_FILE_EXTENSION = ".lst";
+
+    /**
+     * Files with this extension contain text that is compressed in blocks. Text appended to a
+     * compressed file is encoded like in a text file, and then deflated in blocks of at most
+     * 64 KiB, each of which can be inflated on its own.
+     */
+    public static final String COMPRESSED_TEXT_FILE_EXTENSION = TEXT_FILE_EXTENSION + ".z";
+
+    /**
+     * Files with this extension contain hexadecimal numbers that are compressed in blocks, like
+     * the content of files with the extension {@link #COMPRESSED_TEXT_FILE_EXTENSION}.
+     */
+    public static final String COMPRESSED_HEX_FILE_EXTENSION = HEX_FILE_EXTENSION + ".z";
+
+    /**
+     * The default number of milliseconds without new changes before changes in a watched
+     * directory are reported.
+     */
+    public static final long DEFAULT_WATCH_DEBOUNCE_MILLIS = 100;
+
+    /**
+     * Creates a new instance without a read cache.
+     */
+    public FileHandler() {
+        this(0);
+    }
+
+    /**
+     * Creates a new instance that caches decoded file content. The cached content of a file is
+     * removed when the file is written by this file handler, and is not used if the file's last
+     * modified time or size has changed since it was cached.
+     *
+     * @param readCacheBytes The maximum amount of memory used by cached content, zero means
+     *                       nothing is cached.
+     */
+    public FileHandler(long readCacheBytes) {
+        this(readCacheBytes, DEFAULT_WATCH_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Creates a new instance that caches decoded file content, and reports changes in watched
+     * directories when no new changes have arrived for the specified time.
+     *
+     * @param readCacheBytes      The maximum amount of memory used by cached content, zero means
+     *                            nothing is cached.
+     * @param watchDebounceMillis Changes in watched directories are reported when no new changes
+     *                            have arrived for this many milliseconds.
+     */
+    public FileHandler(long readCacheBytes, long watchDebounceMillis) {
+        this(readCacheBytes, watchDebounceMillis, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new instance like {@link #FileHandler(long, long)}, which inflates the blocks of
+     * compressed files in the specified pool.
+     *
+     * @param readCacheBytes      The maximum amount of memory used by cached content, zero means
+     *                            nothing is cached.
+     * @param watchDebounceMillis Changes in watched directories are reported when no new changes
+     *                            have arrived for this many milliseconds.
+     * @param inflatePool         Inflates the blocks of compressed files when they are read.
+     */
+    public FileHandler(long readCacheBytes, long watchDebounceMillis, ForkJoinPool inflatePool) {
+        readCache = new ReadCache(readCacheBytes);
+        this.watchDebounceMillis = watchDebounceMillis;
+        this.inflatePool = inflatePool;
+    }
+
     /**
      * Creates an empty directory with the specified path, relative to the current working
      * directory. Nothing happens if the specified directory already exists.
@@ -96,13 +207,89 @@ public class FileHandler {
         Path listDirPath = createAbsolutePathFromPathRelativeToWorkingDir(path);
         if (Files.isDirectory(listDirPath)) {
             StringBuilder content = new StringBuilder();
-            Files.list(listDirPath).forEach(
-                    fileInDir -> appendElement(content, fileInDir.toString()));
-            return stripCurrentDir(createReturnString(content));
+            listDir(path, null, 0, null, false, content::append);
+            return createReturnString(content);
         }
         return listDirPath.toString();
     }
 
+    /**
+     * Lists the content of the specified directory, one page at a time, and hands the entries to
+     * the specified consumer in chunks, separated by a space character. The directory is read
+     * entry by entry, so the memory used depends on the page size, not on the number of entries.
+     * Pages are listed in name order. If the specified path is a file, only the name of that file
+     * is listed.
+     *
+     * @param path           The directory to list.
+     * @param glob           Only entries whose names match this glob pattern, for example
+     *                       <code>*.txt</code>, are listed. <code>null</code> means all entries
+     *                       are listed.
+     * @param pageSize       The maximum number of entries to list, zero means there is no maximum.
+     * @param pageToken      <code>null</code> to list the first page, or a token returned by an
+     *                       earlier call, to list the following page. The token is the name of
+     *                       the last listed entry, so entries that are created or deleted between
+     *                       pages never cause other entries to be skipped or repeated.
+     * @param withAttributes If <code>true</code>, each entry is followed by its size in bytes and
+     *                       its last modified time, separated by commas. All attributes of an
+     *                       entry are read at once, relative to the open directory if supported.
+     * @param showChunk      Receives the listed entries.
+     * @return A token for listing the next page, or <code>null</code> if there are no more
+     *         entries.
+     * @throws IOException              If failed to read the directory.
+     * @throws IllegalArgumentException If the page size is negative.
+     */
+    public String listDir(String path, String glob, int pageSize, String pageToken,
+                          boolean withAttributes, Consumer<String> showChunk) throws IOException {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Negative page size: " + pageSize);
+        }
+        Path listDirPath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        ChunkWriter chunks = new ChunkWriter(showChunk);
+        if (!Files.isDirectory(listDirPath)) {
+            chunks.appendElement(listDirPath.toString());
+            chunks.flush();
+            return null;
+        }
+        TreeSet<String> page = new TreeSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                listDirPath, glob == null ? "*" : glob)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (LineIndex.isIndexFile(entry)
+                    || pageToken != null && name.compareTo(pageToken) <= 0) {
+                    continue;
+                }
+                if (pageSize == 0) {
+                    appendEntry(entries, entry, withAttributes, chunks);
+                    continue;
+                }
+                page.add(name);
+                if (page.size() > pageSize + 1) {
+                    page.pollLast();
+                }
+            }
+            boolean hasMoreEntries = page.size() > pageSize;
+            if (hasMoreEntries) {
+                page.pollLast();
+            }
+            for (String name : page) {
+                appendEntry(entries, listDirPath.resolve(name), withAttributes, chunks);
+            }
+            chunks.flush();
+            return hasMoreEntries ? page.last() : null;
+        }
+    }
+
+    private void appendEntry(DirectoryStream<Path> dir, Path entry, boolean withAttributes,
+                             ChunkWriter chunks) throws IOException {
+        String name = entry.normalize().toString();
+        if (withAttributes) {
+            BasicFileAttributes attrs = readAttributes(dir, entry);
+            name = name + "," + attrs.size() + "," + attrs.lastModifiedTime();
+        }
+        chunks.appendElement(name);
+    }
+
     /**
      * Writes the specified content to the specified file. The file is created if it does not exist,
      * and the content is appended if the file already exists.
@@ -110,19 +297,57 @@ public class FileHandler {
      * @param path    The path of the file to which the content shall be written. File content is
      *                treated as either text, hex values or serialized objects, as specified by the
      *                extension. Note that the current version allows only one object, which means
-     *                one write operation, per file. For text and hex files, there can be any number
-     *                of write operations per file.
-     * @param content The content that shall be written.
-     * @throws IOException If failed to create file or write to it.
+     *                one write operation, per file. For text, hex and list files, there can be any
+     *                number of write operations per file.
+     * @param content The content that shall be written. Content written to a hex file must be
+     *                whitespace-separated hex values.
+     * @throws MalformedContentException If the content does not have the format required by the
+     *                                   file's extension. Nothing is written in this case.
+     * @throws IOException               If failed to create file or write to it.
      */
     public void write(String path, String content) throws IOException, ClassNotFoundException {
-        String file = workingDir.resolve(Paths.get(path)).toString();
-        if (hasExtension(file, TEXT_FILE_EXTENSION)) {
-            writeText(file, content);
-        } else if (hasExtension(file, HEX_FILE_EXTENSION)) {
-            writeHex(file, content);
-        } else if (hasExtension(file, OBJ_FILE_EXTENSION)) {
-            writeObj(file, content);
+        write(path, Collections.singletonList(content), false);
+    }
+
+    /**
+     * Writes all the specified contents to the specified file, in the specified order, opening the
+     * file only once. The result is the same as calling {@link #write(java.lang.String,
+     * java.lang.String)} once for each content, but much faster when there are many contents.
+     *
+     * @param path     The path of the file to which the contents shall be written.
+     * @param contents The contents that shall be written.
+     * @param sync     If <code>true</code>, this method does not return until all contents have
+     *                 been forced to the storage device.
+     * @throws MalformedContentException If any of the contents does not have the format required by
+     *                                   the file's extension. Nothing is written in this case.
+     * @throws IOException               If failed to create file or write to it.
+     * @see #write(java.lang.String, java.lang.String)
+     */
+    public void write(String path, List<String> contents, boolean sync) throws IOException {
+        Path filePath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        String file = filePath.toString();
+        Lock writeLock = locks.lockFor(filePath).writeLock();
+        writeLock.lock();
+        try {
+            if (hasExtension(file, TEXT_FILE_EXTENSION)) {
+                writeText(file, contents, sync);
+                updateLineIndexIfExists(filePath);
+            } else if (hasExtension(file, HEX_FILE_EXTENSION)) {
+                writeHex(file, contents, sync);
+            } else if (hasExtension(file, OBJ_FILE_EXTENSION)) {
+                writeObj(file, contents, sync);
+            } else if (hasExtension(file, LIST_FILE_EXTENSION)) {
+                writeList(file, contents, sync);
+            } else if (hasExtension(file, COMPRESSED_TEXT_FILE_EXTENSION)) {
+                CompressedFile.append(filePath, CompressedFile.compress(encodeText(contents)),
+                                      sync);
+            } else if (hasExtension(file, COMPRESSED_HEX_FILE_EXTENSION)) {
+                CompressedFile.append(filePath, CompressedFile.compress(encodeHex(contents)),
+                                      sync);
+            }
+        } finally {
+            invalidateWritten(filePath);
+            writeLock.unlock();
         }
     }
 
@@ -134,91 +359,871 @@ public class FileHandler {
      *             serialized objects, as specified by the extension.
      */
     public String read(String path) throws IOException, ClassNotFoundException {
-        String file = workingDir.resolve(Paths.get(path)).toString();
+        Path filePath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        String file = filePath.toString();
+        if (!hasKnownExtension(file)) {
+            return null;
+        }
+        Lock readLock = locks.lockFor(filePath).readLock();
+        readLock.lock();
+        try {
+            String cached = readCache.isEnabled() ? readThroughCache(filePath) : null;
+            if (cached != null) {
+                return cached;
+            }
+            StringBuilder content = new StringBuilder();
+            ChunkWriter chunks = new ChunkWriter(content::append);
+            decode(file, chunks);
+            chunks.flush();
+            return createReturnString(content);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the content of the specified file and hands it to the specified consumer in chunks of
+     * at most {@link #CHUNK_SIZE} characters. Concatenating all chunks gives the same content as
+     * {@link #read(java.lang.String)}, except that leading and trailing spaces might not be
+     * trimmed. Text and hex files that are not cached are never held in memory as a whole, so the
+     * memory used by this method does not depend on the file size. Serialized files must be
+     * deserialized completely before the first chunk can be delivered.
+     *
+     * @param path      path to the file to read. File content is treated as either text, hex
+     *                  values or serialized objects, as specified by the extension.
+     * @param showChunk Receives the file content, one chunk at a time. Is not called at all if the
+     *                  file is empty or has an unknown extension.
+     */
+    public void read(String path, Consumer<String> showChunk) throws IOException,
+                                                                     ClassNotFoundException {
+        Path filePath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        ChunkWriter chunks = new ChunkWriter(showChunk);
+        Lock readLock = locks.lockFor(filePath).readLock();
+        readLock.lock();
+        try {
+            String cached = readCache.isEnabled() && hasKnownExtension(filePath.toString())
+                            ? readThroughCache(filePath) : null;
+            if (cached != null) {
+                chunks.deliverInChunks(cached);
+            } else {
+                decode(filePath.toString(), chunks);
+            }
+            chunks.flush();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Reads only the content appended to the specified file after the specified offset, and hands
+     * it to the specified consumer in chunks, like {@link #read(java.lang.String,
+     * java.util.function.Consumer)}. Only complete records are read: lines in text files, values in
+     * hex files and lists in list files. The returned offset is where the next call shall start
+     * reading to get the content appended after this call. Offsets in compressed files are
+     * offsets in the uncompressed content, reading starts at the block containing the offset,
+     * without inflating the preceding blocks.
+     *
+     * @param path      Path to a text, hex or list file, compressed or not. Serialized files can
+     *                  not be read from an offset.
+     * @param offset    Zero, or an offset returned by an earlier call to this method or to
+     *                  {@link #endOffset(java.lang.String)}, for the same file.
+     * @param showChunk Receives the content after the offset.
+     * @return The offset after the last record that was read.
+     * @throws IOException If failed to read the file.
+     * @throws IllegalArgumentException If the file contains serialized objects.
+     */
+    public long readFrom(String path, long offset, Consumer<String> showChunk)
+            throws IOException {
+        Path filePath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        String file = filePath.toString();
+        if (hasExtension(file, OBJ_FILE_EXTENSION)) {
+            throw new IllegalArgumentException("Can not read from an offset in " + path);
+        }
+        ChunkWriter chunks = new ChunkWriter(showChunk);
+        Lock readLock = locks.lockFor(filePath).readLock();
+        readLock.lock();
+        if (isCompressed(file)) {
+            try (CompressedFile fromFile = new CompressedFile(filePath)) {
+                long end = endOffset(file, fromFile);
+                if (end <= offset) {
+                    return offset;
+                }
+                fromFile.inflate(offset, end, inflatePool, compressedContentDecoder(file, chunks));
+                chunks.flush();
+                return end;
+            } finally {
+                readLock.unlock();
+            }
+        }
+        try (FileChannel fromFile = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long end = endOffset(file, fromFile);
+            if (end <= offset) {
+                return offset;
+            }
+            if (hasExtension(file, TEXT_FILE_EXTENSION)) {
+                fromFile.position(offset);
+                chunks.appendLines(new BufferedReader(new InputStreamReader(
+                        new BoundedInputStream(Channels.newInputStream(fromFile), end - offset))));
+            } else if (hasExtension(file, HEX_FILE_EXTENSION)) {
+                new MappedHexFile(filePath, offset).formatValues(CHUNK_SIZE, chunks::deliver);
+            } else if (hasExtension(file, LIST_FILE_EXTENSION)) {
+                fromFile.position(offset);
+                StringListCodec.readRecords(new BufferedInputStream(
+                        Channels.newInputStream(fromFile)), chunks::appendElement);
+            }
+            chunks.flush();
+            return end;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the specified range of lines from the specified text file, and hands them to the
+     * specified consumer in chunks, separated by a space character. The lines are found using an
+     * index stored next to the text file, in a file with the extension <code>.idx</code>. The index
+     * is created the first time a range of lines is read, and is then kept up to date by
+     * {@link #write(java.lang.String, java.util.List, boolean)}. Lines are terminated by
+     * <code>\n</code>.
+     *
+     * @param path      Path to a text file.
+     * @param firstLine The number of the first line to read, the first line in the file has
+     *                  number zero.
+     * @param endLine   The number of the line after the last line to read.
+     * @param showChunk Receives the lines.
+     * @throws IOException If failed to read the file or the index.
+     * @throws IllegalArgumentException If the file is not a text file.
+     */
+    public void readLines(String path, long firstLine, long endLine, Consumer<String> showChunk)
+            throws IOException {
+        Path filePath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        if (!hasExtension(filePath.toString(), TEXT_FILE_EXTENSION)) {
+            throw new IllegalArgumentException("Can only read lines from text files, not " + path);
+        }
+        ChunkWriter chunks = new ChunkWriter(showChunk);
+        Lock readLock = locks.lockFor(filePath).readLock();
+        readLock.lock();
+        try {
+            long[] indexedLine = updateLineIndex(filePath, firstLine);
+            try (FileChannel fromFile = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                fromFile.position(indexedLine[1]);
+                appendLineRange(new BufferedReader(new InputStreamReader(
+                        Channels.newInputStream(fromFile))), indexedLine[0], firstLine, endLine,
+                                chunks);
+            }
+            chunks.flush();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the offset after the last complete record in the specified file. Reading from that
+     * offset with {@link #readFrom(java.lang.String, long, java.util.function.Consumer)} gives
+     * only content appended after this call.
+     *
+     * @param path Path to a text, hex or list file, compressed or not.
+     * @return The offset after the last complete record.
+     * @throws IOException If failed to read the file.
+     */
+    public long endOffset(String path) throws IOException {
+        Path filePath = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        Lock readLock = locks.lockFor(filePath).readLock();
+        readLock.lock();
+        try {
+            if (isCompressed(filePath.toString())) {
+                try (CompressedFile fromFile = new CompressedFile(filePath)) {
+                    return endOffset(filePath.toString(), fromFile);
+                }
+            }
+            try (FileChannel fromFile = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                return endOffset(filePath.toString(), fromFile);
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the specified file or directory. File content is transferred by the operating system,
+     * it is never copied to the Java heap. Directory trees are copied by fork/join tasks in the
+     * specified pool, so that files are copied concurrently by as many threads as the pool has.
+     * Existing files are never overwritten.
+     *
+     * @param source The file or directory to copy.
+     * @param target The path of the copy, which must not exist.
+     * @param pool   Copies the files in a directory tree.
+     * @return The number of copied files and bytes, and the time it took.
+     * @throws IOException If failed to read or write, or if the target exists. Files copied
+     *                     before the failure are not removed.
+     * @throws IllegalArgumentException If the target is inside the copied directory.
+     */
+    public CopyProgress copy(String source, String target, ForkJoinPool pool) throws IOException {
+        Path sourcePath = createAbsolutePathFromPathRelativeToWorkingDir(source).toAbsolutePath()
+                .normalize();
+        Path targetPath = createAbsolutePathFromPathRelativeToWorkingDir(target).toAbsolutePath()
+                .normalize();
+        if (targetPath.startsWith(sourcePath)) {
+            throw new IllegalArgumentException("Can not copy " + source + " into itself.");
+        }
+        try {
+            return new TreeCopier(locks).copy(sourcePath, targetPath, pool);
+        } finally {
+            invalidateTree(targetPath);
+        }
+    }
+
+    /**
+     * Computes the disk usage of the specified file or directory tree. Directories are scanned in
+     * parallel, by fork/join tasks in the specified pool. The usage of each directory is cached,
+     * and the directory is not listed again until its last modified time changes, or until a file
+     * in it is written by this file handler, so scanning an unchanged tree only reads the last
+     * modified time of each directory. Files changed by other programs without creating or
+     * deleting files are only noticed if the tree is watched, see
+     * {@link #watch(java.lang.String, java.util.function.Consumer)}. Symbolic links are not
+     * followed.
+     *
+     * @param path The file or directory.
+     * @param pool Scans the directories of the tree.
+     * @return The total size and number of files, the number of files per extension, and the
+     *         {@value DiskUsage#NO_OF_LARGEST_FILES} largest files.
+     * @throws IOException If failed to read the tree.
+     */
+    public DiskUsage diskUsage(String path, ForkJoinPool pool) throws IOException {
+        Path scanPath = createAbsolutePathFromPathRelativeToWorkingDir(path).toAbsolutePath()
+                .normalize();
+        return diskUsageScanner.scan(scanPath, workingDir.toAbsolutePath().normalize(), pool);
+    }
+
+    /**
+     * Deletes the specified file or directory, including all files and directories below it.
+     * Directory trees are deleted post-order by fork/join tasks in the specified pool, so that
+     * directories are emptied concurrently by as many threads as the pool has.
+     *
+     * @param path         The file or directory to delete.
+     * @param pool         Deletes the directories in a tree.
+     * @param showProgress Receives the progress while a tree is deleted, each time another
+     *                     {@value TreeDeleter#PROGRESS_INTERVAL} files have been deleted.
+     * @return The number of deleted files and directories, and the time it took.
+     * @throws IOException If failed to delete. Files deleted before the failure are not restored.
+     */
+    public DeleteProgress delete(String path, ForkJoinPool pool,
+                                 Consumer<DeleteProgress> showProgress) throws IOException {
+        Path deletePath = createAbsolutePathFromPathRelativeToWorkingDir(path).toAbsolutePath()
+                .normalize();
+        try {
+            DeleteProgress deleted = new TreeDeleter(locks, showProgress).delete(deletePath, pool);
+            deleteLineIndexOf(deletePath);
+            return deleted;
+        } finally {
+            invalidateTree(deletePath);
+        }
+    }
+
+    /**
+     * Moves (renames) the specified file or directory. The move is atomic if the source and the
+     * target are on the same file system. Otherwise, the source is copied as by
+     * {@link #copy(java.lang.String, java.lang.String, java.util.concurrent.ForkJoinPool)}, and
+     * then deleted as by {@link #delete(java.lang.String, java.util.concurrent.ForkJoinPool,
+     * java.util.function.Consumer)}. Existing files are never overwritten.
+     *
+     * @param source The file or directory to move.
+     * @param target The new path, which must not exist.
+     * @param pool   Copies and deletes directory trees that are moved to another file system.
+     * @throws IOException If failed to move, or if the target exists.
+     * @throws IllegalArgumentException If the target is inside the moved directory.
+     */
+    public void move(String source, String target, ForkJoinPool pool) throws IOException {
+        Path sourcePath = createAbsolutePathFromPathRelativeToWorkingDir(source).toAbsolutePath()
+                .normalize();
+        Path targetPath = createAbsolutePathFromPathRelativeToWorkingDir(target).toAbsolutePath()
+                .normalize();
+        if (targetPath.startsWith(sourcePath)) {
+            throw new IllegalArgumentException("Can not move " + source + " into itself.");
+        }
+        try {
+            Lock[] taken = locks.lockForMove(sourcePath, targetPath);
+            try {
+                if (Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+                    throw new FileAlreadyExistsException(target);
+                }
+                Files.move(sourcePath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+                deleteLineIndexOf(sourcePath);
+                return;
+            } catch (AtomicMoveNotSupportedException otherFileSystem) {
+            } finally {
+                PathLocks.unlock(taken);
+            }
+            new TreeCopier(locks).copy(sourcePath, targetPath, pool);
+            new TreeDeleter(locks, progress -> {}).delete(sourcePath, pool);
+            deleteLineIndexOf(sourcePath);
+        } finally {
+            invalidateTree(sourcePath);
+            invalidateTree(targetPath);
+        }
+    }
+
+    /**
+     * Searches the specified text file, or all text files in the specified directory tree, for
+     * lines containing the specified pattern. The files are memory-mapped and split into chunks
+     * at line boundaries, and the chunks are scanned in parallel by fork/join tasks in the
+     * specified pool, so files are never read into strings as a whole. A pattern without regular
+     * expression metacharacters is searched for byte by byte in the mapped files, other patterns
+     * are matched as regular expressions against each line.
+     *
+     * @param path      The file or directory to search.
+     * @param pattern   A literal string or a regular expression.
+     * @param pool      Scans the files.
+     * @param showChunk Receives the matching lines, one per line, on the form
+     *                  <code>path:line:text</code>, where the first line in a file has number
+     *                  zero. The matches of one file are delivered together.
+     * @return The number of matching lines.
+     * @throws IOException If failed to read a file or directory.
+     * @throws java.util.regex.PatternSyntaxException If the pattern is not a valid regular
+     *                                                expression.
+     */
+    public long grep(String path, String pattern, ForkJoinPool pool, Consumer<String> showChunk)
+            throws IOException {
+        Path grepPath = createAbsolutePathFromPathRelativeToWorkingDir(path).toAbsolutePath()
+                .normalize();
+        return new TreeGrep(locks, workingDir.toAbsolutePath().normalize(), pattern, showChunk)
+                .grep(grepPath, pool);
+    }
+
+    /**
+     * Starts watching the specified directory, and all directories below it, for created,
+     * modified and deleted files. Changes are pushed to the specified consumer as they happen,
+     * instead of being found by repeatedly listing and reading the directory. All changes of the
+     * same file that happen close in time are reported as one event. Once a directory is watched,
+     * changes made by other programs also remove stale content from the read cache.
+     *
+     * @param path      The directory to watch.
+     * @param showEvent Receives the changes, with paths relative to the current working
+     *                  directory. Is called by a single thread, and must not block.
+     * @throws IOException If the directory does not exist or could not be watched.
+     * @see FileEvent.Kind#then(FileEvent.Kind)
+     */
+    public void watch(String path, Consumer<FileEvent> showEvent) throws IOException {
+        Path dir = createAbsolutePathFromPathRelativeToWorkingDir(path).toAbsolutePath()
+                .normalize();
+        if (!Files.isDirectory(dir)) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        Path base = workingDir.toAbsolutePath().normalize();
+        getWatcher().watch(dir, event -> {
+            if (!LineIndex.isIndexFile(event.getPath())) {
+                showEvent.accept(new FileEvent(event.getKind(), base.relativize(event.getPath())));
+            }
+        });
+    }
+
+    /**
+     * Stops watching the specified directory.
+     *
+     * @param path The directory that shall no longer be watched.
+     * @return <code>true</code> if the directory was watched.
+     */
+    public synchronized boolean unwatch(String path) {
+        if (watcher == null) {
+            return false;
+        }
+        return watcher.unwatch(createAbsolutePathFromPathRelativeToWorkingDir(path)
+                .toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return The cache of decoded file content used by this file handler. The cache does not hold
+     *         any content if this file handler was created without a cache.
+     */
+    public ReadCache getReadCache() {
+        return readCache;
+    }
+
+    /**
+     * Returns all values in the specified hex file as a stream of primitive <code>int</code>s. The
+     * file is mapped into memory, the values are read straight from the mapped pages without
+     * being boxed or copied.
+     *
+     * @param path Path to the hex file to read.
+     * @return The values in the file, in the order they were written.
+     * @throws IOException If failed to open or map the file.
+     */
+    public IntStream readHexValues(String path) throws IOException {
+        Path file = createAbsolutePathFromPathRelativeToWorkingDir(path);
+        Lock readLock = locks.lockFor(file).readLock();
+        readLock.lock();
+        try {
+            return new MappedHexFile(file).values();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns all values in the specified hex file as an array.
+     *
+     * @param path Path to the hex file to read.
+     * @return The values in the file, in the order they were written.
+     * @throws IOException If failed to open or map the file.
+     * @see #readHexValues(java.lang.String)
+     */
+    public int[] readHexArray(String path) throws IOException {
+        return readHexValues(path).toArray();
+    }
+
+    /**
+     * Converts a file with serialized objects to the compact list format. The list in the
+     * serialized file is written as one record of a file with the extension
+     * {@link #LIST_FILE_EXTENSION}, which gives the same result when read.
+     *
+     * @param objPath  Path to the file with serialized objects.
+     * @param listPath Path to the list file. The converted list is appended if the file exists.
+     * @throws IOException            If failed to read or write.
+     * @throws ClassNotFoundException If the serialized file does not contain a list of strings.
+     */
+    public void convertObjToList(String objPath, String listPath) throws IOException,
+                                                                         ClassNotFoundException {
+        Path objFile = createAbsolutePathFromPathRelativeToWorkingDir(objPath);
+        Path listFile = createAbsolutePathFromPathRelativeToWorkingDir(listPath);
+        List<String> contentAsList;
+        Lock readLock = locks.lockFor(objFile).readLock();
+        readLock.lock();
+        try (ObjectInputStream fromFile = new ObjectInputStream(new BufferedInputStream(
+                new FileInputStream(objFile.toString())))) {
+            contentAsList = (List<String>) fromFile.readObject();
+        } finally {
+            readLock.unlock();
+        }
+        Lock writeLock = locks.lockFor(listFile).writeLock();
+        writeLock.lock();
+        try (OutputStream toFile = new BufferedOutputStream(new FileOutputStream(
+                listFile.toString(), true))) {
+            StringListCodec.writeRecord(contentAsList, true, toFile);
+        } finally {
+            invalidateWritten(listFile);
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * The watcher is not created until a directory is watched, since it holds a thread and a
+     * watch service.
+     */
+    private synchronized DirectoryWatcher getWatcher() throws IOException {
+        if (watcher == null) {
+            watcher = new DirectoryWatcher(watchDebounceMillis);
+            watcher.addChangeListener(this::invalidateChanged);
+        }
+        return watcher;
+    }
+
+    private void invalidateChanged(FileEvent event) {
+        if (event.getKind() == FileEvent.Kind.OVERFLOW) {
+            invalidateTree(event.getPath());
+        } else {
+            invalidateWritten(event.getPath());
+        }
+    }
+
+    /**
+     * Returns the locks that an {@link AsyncFileHandler} using this handler shall acquire. From
+     * the first call of this method, all operations of this handler acquire the same locks, in
+     * addition to the striped locks, so that they never run concurrently with a conflicting
+     * operation of the asynchronous handler.
+     */
+    synchronized AsyncPathLocks getAsyncLocks() {
+        if (asyncLocks == null) {
+            asyncLocks = new AsyncPathLocks();
+            locks = LOCKS.alsoLocking(asyncLocks);
+        }
+        return asyncLocks;
+    }
+
+    /**
+     * Removes all cached information about the specified file, which has been written.
+     */
+    void invalidateWritten(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        readCache.invalidate(key);
+        if (key.getParent() != null) {
+            diskUsageScanner.invalidate(key.getParent());
+        }
+    }
+
+    /**
+     * Removes all cached information about the specified file or directory tree, which has been
+     * created, deleted or moved.
+     */
+    private void invalidateTree(Path path) {
+        readCache.invalidateTree(path);
+        diskUsageScanner.invalidateTree(path);
+        if (path.getParent() != null) {
+            diskUsageScanner.invalidate(path.getParent());
+        }
+    }
+
+    /**
+     * The index of a text file that was deleted or moved is of no use.
+     */
+    private void deleteLineIndexOf(Path file) throws IOException {
+        if (hasExtension(file.toString(), TEXT_FILE_EXTENSION)) {
+            Path indexFile = LineIndex.indexFileOf(file);
+            Lock indexLock = locks.lockFor(indexFile).writeLock();
+            indexLock.lock();
+            try {
+                Files.deleteIfExists(indexFile);
+            } finally {
+                indexLock.unlock();
+            }
+        }
+    }
+
+    private void decode(String file, ChunkWriter chunks) throws IOException,
+                                                                ClassNotFoundException {
         if (hasExtension(file, TEXT_FILE_EXTENSION)) {
-            return readText(file);
+            readText(file, chunks);
         } else if (hasExtension(file, HEX_FILE_EXTENSION)) {
-            return readHex(file);
+            readHex(file, chunks);
         } else if (hasExtension(file, OBJ_FILE_EXTENSION)) {
-            return readObj(file);
+            readObj(file, chunks);
+        } else if (hasExtension(file, LIST_FILE_EXTENSION)) {
+            readList(file, chunks);
+        } else if (isCompressed(file)) {
+            readCompressed(file, compressedContentDecoder(file, chunks));
         }
-        return null;
     }
 
-    private String stripCurrentDir(String path) {
-        return path.replaceAll("\\./", "");
+    /**
+     * Must be called holding the read lock of the file. Returns <code>null</code> if the file is
+     * too large to be cached. The decoded content can be much larger than the file, hex values
+     * for example take five times more memory as text, therefore decoding is abandoned as soon
+     * as the content no longer fits in the cache, and the caller has to stream the file instead.
+     */
+    private String readThroughCache(Path file) throws IOException, ClassNotFoundException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String cached = readCache.get(key, attrs);
+        if (cached != null || attrs.size() > readCache.getCapacityInBytes()) {
+            return cached;
+        }
+        StringBuilder content = new StringBuilder();
+        long maxLength = readCache.getCapacityInChars();
+        ChunkWriter chunks = new ChunkWriter(chunk -> {
+            content.append(chunk);
+            if (content.length() > maxLength) {
+                throw new TooLargeToCache();
+            }
+        });
+        try {
+            decode(file.toString(), chunks);
+            chunks.flush();
+        } catch (TooLargeToCache tooLarge) {
+            return null;
+        }
+        String decoded = createReturnString(content);
+        readCache.put(key, attrs, decoded);
+        return decoded;
     }
 
-    private boolean hasExtension(String file, String extension) {
-        return file.endsWith(extension);
+    /**
+     * Updates the line index of the specified text file, and returns the number and byte offset
+     * of the closest indexed line at or before the specified line. Must be called holding at
+     * least the read lock of the text file.
+     */
+    private long[] updateLineIndex(Path textFile, long line) throws IOException {
+        LineIndex index = new LineIndex(textFile);
+        Lock indexLock = locks.lockFor(LineIndex.indexFileOf(textFile)).writeLock();
+        indexLock.lock();
+        try {
+            index.update();
+            return index.findLineAtOrBefore(line);
+        } finally {
+            indexLock.unlock();
+        }
     }
 
-    private void writeText(String file, String content) throws IOException {
-        try (PrintWriter toFile = new PrintWriter(new BufferedWriter(new FileWriter(file, true)))) {
-            toFile.println(content);
+    /**
+     * Must be called holding the write lock of the text file, or, if the file is written by an
+     * {@link AsyncFileHandler}, the write lock of that handler.
+     */
+    void updateLineIndexIfExists(Path textFile) throws IOException {
+        LineIndex index = new LineIndex(textFile);
+        if (index.exists()) {
+            Lock indexLock = locks.lockFor(LineIndex.indexFileOf(textFile)).writeLock();
+            indexLock.lock();
+            try {
+                index.update();
+            } finally {
+                indexLock.unlock();
+            }
         }
     }
 
-    private String readText(String file) throws IOException {
-        try (BufferedReader fromFile = new BufferedReader(new FileReader(file))) {
-            StringBuilder content = new StringBuilder();
-            fromFile.lines().forEachOrdered(line -> appendElement(content, line));
-            return createReturnString(content);
+    private void appendLineRange(Reader fromFile, long currentLine, long firstLine, long endLine,
+                                 ChunkWriter chunks) throws IOException {
+        char[] buf = new char[CHUNK_SIZE];
+        for (int count = fromFile.read(buf); count != -1 && currentLine < endLine;
+             count = fromFile.read(buf)) {
+            for (int i = 0; i < count && currentLine < endLine; i++) {
+                char c = buf[i];
+                if (c == '\n') {
+                    if (currentLine >= firstLine) {
+                        chunks.append(LINE_SEPARATOR);
+                    }
+                    currentLine++;
+                } else if (c != '\r' && currentLine >= firstLine) {
+                    chunks.append(c);
+                }
+            }
+        }
+    }
+
+    private long endOffset(String file, FileChannel fromFile) throws IOException {
+        long size = fromFile.size();
+        if (hasExtension(file, HEX_FILE_EXTENSION)) {
+            return MappedHexFile.completeValuesEnd(size);
+        } else if (hasExtension(file, TEXT_FILE_EXTENSION)) {
+            return positionAfterLastLine(fromFile, size);
+        }
+        return size;
+    }
+
+    private long endOffset(String file, CompressedFile fromFile) throws IOException {
+        if (hasExtension(file, COMPRESSED_HEX_FILE_EXTENSION)) {
+            return MappedHexFile.completeValuesEnd(fromFile.size());
+        }
+        return fromFile.positionAfterLastLine();
+    }
+
+    private long positionAfterLastLine(FileChannel fromFile, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+        for (long blockEnd = size; blockEnd > 0; blockEnd -= buf.capacity()) {
+            long blockStart = Math.max(0, blockEnd - buf.capacity());
+            buf.clear().limit((int)(blockEnd - blockStart));
+            while (buf.hasRemaining()) {
+                if (fromFile.read(buf, blockStart + buf.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = buf.position() - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
         }
+        return 0;
     }
 
-    private void writeHex(String file, String content) throws IOException {
-        try (DataOutputStream toFile = new DataOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file, true)))) {
-            for (String hexVal : content.split(" ")) {
-                toFile.writeInt(Integer.parseInt(hexVal, HEX_RADIX));
+    private BasicFileAttributes readAttributes(DirectoryStream<Path> dir, Path entry)
+            throws IOException {
+        if (dir instanceof SecureDirectoryStream) {
+            return ((SecureDirectoryStream<Path>)dir).getFileAttributeView(
+                    entry.getFileName(), BasicFileAttributeView.class).readAttributes();
+        }
+        return Files.readAttributes(entry, BasicFileAttributes.class);
+    }
+
+    private boolean hasExtension(String file, String extension) {
+        return file.endsWith(extension);
+    }
+
+    private boolean hasKnownExtension(String file) {
+        return hasExtension(file, TEXT_FILE_EXTENSION) || hasExtension(file, HEX_FILE_EXTENSION)
+               || hasExtension(file, OBJ_FILE_EXTENSION)
+               || hasExtension(file, LIST_FILE_EXTENSION) || isCompressed(file);
+    }
+
+    private boolean isCompressed(String file) {
+        return hasExtension(file, COMPRESSED_TEXT_FILE_EXTENSION)
+               || hasExtension(file, COMPRESSED_HEX_FILE_EXTENSION);
+    }
+
+    private void writeText(String file, List<String> contents, boolean sync) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(file, true);
+             BufferedWriter toFile = new BufferedWriter(new OutputStreamWriter(fileStream))) {
+            for (String content : contents) {
+                toFile.write(content);
+                toFile.newLine();
             }
+            toFile.flush();
+            syncIfRequested(fileStream, sync);
         }
     }
 
-    private String readHex(String file) throws IOException {
-        try (DataInputStream fromFile = new DataInputStream(new BufferedInputStream(
-                new FileInputStream(file)))) {
-            StringBuilder content = new StringBuilder();
-            try {
-                for (;;) {
-                    appendElement(content, Integer.toString(fromFile.readInt(), HEX_RADIX));
+    private void readText(String file, ChunkWriter chunks) throws IOException {
+        try (Reader fromFile = new BufferedReader(new FileReader(file))) {
+            chunks.appendLines(fromFile);
+        }
+    }
+
+    private void writeHex(String file, List<String> contents, boolean sync) throws IOException {
+        try (HexFileAppender toFile = new HexFileAppender(Paths.get(file))) {
+            long batchStart = toFile.position();
+            for (String content : contents) {
+                try {
+                    toFile.append(content);
+                } catch (MalformedContentException mce) {
+                    toFile.rollBack(batchStart);
+                    throw mce;
                 }
-            } catch (EOFException doneReading) {
             }
-            return createReturnString(content);
+            if (sync) {
+                toFile.sync();
+            }
         }
     }
 
-    private void writeObj(String file, String content) throws IOException {
-        String[] elems = content.split(" ");
-        List<String> contentAsList = Arrays.asList(elems);
-        try (ObjectOutputStream toFile = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file, true)))) {
-            toFile.writeObject(contentAsList);
+    private void readHex(String file, ChunkWriter chunks) throws IOException {
+        new MappedHexFile(Paths.get(file)).formatValues(CHUNK_SIZE, chunks::deliver);
+    }
+
+    private void writeObj(String file, List<String> contents, boolean sync) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(file, true);
+             BufferedOutputStream bufferedStream = new BufferedOutputStream(fileStream)) {
+            for (String content : contents) {
+                String[] elems = content.split(" ");
+                List<String> contentAsList = Arrays.asList(elems);
+                ObjectOutputStream toFile = new ObjectOutputStream(bufferedStream);
+                toFile.writeObject(contentAsList);
+                toFile.flush();
+            }
+            syncIfRequested(fileStream, sync);
         }
     }
 
-    private String readObj(String file) throws IOException, ClassNotFoundException {
+    private void readObj(String file, ChunkWriter chunks) throws IOException,
+                                                                  ClassNotFoundException {
         try (ObjectInputStream fromFile = new ObjectInputStream(new BufferedInputStream(
                 new FileInputStream(file)))) {
-            StringBuilder content = new StringBuilder();
             List<String> contentAsList = (List<String>) fromFile.readObject();
-            contentAsList.stream().forEachOrdered(line -> appendElement(content, line));
-            return createReturnString(content);
+            contentAsList.stream().forEachOrdered(chunks::appendElement);
+        }
+    }
+
+    private void writeList(String file, List<String> contents, boolean sync) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(file, true);
+             OutputStream toFile = new BufferedOutputStream(fileStream)) {
+            for (String content : contents) {
+                List<String> contentAsList = Arrays.asList(content.split(LINE_SEPARATOR));
+                StringListCodec.writeRecord(contentAsList, true, toFile);
+            }
+            toFile.flush();
+            syncIfRequested(fileStream, sync);
+        }
+    }
+
+    private void syncIfRequested(FileOutputStream fileStream, boolean sync) throws IOException {
+        if (sync) {
+            fileStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Encodes the specified contents like {@link #writeText(java.lang.String, java.util.List,
+     * boolean)} writes them.
+     */
+    static byte[] encodeText(List<String> contents) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        Writer toBuffer = new OutputStreamWriter(encoded);
+        for (String content : contents) {
+            toBuffer.write(content);
+            toBuffer.write(System.lineSeparator());
         }
+        toBuffer.flush();
+        return encoded.toByteArray();
     }
 
-    private void appendElement(StringBuilder lines, String line) {
-        lines.append(line);
-        lines.append(LINE_SEPARATOR);
+    /**
+     * Encodes the specified contents like {@link #writeHex(java.lang.String, java.util.List,
+     * boolean)} writes them.
+     *
+     * @throws MalformedContentException If any of the contents is not whitespace-separated hex
+     *                                   values.
+     */
+    static byte[] encodeHex(List<String> contents) throws MalformedContentException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (String content : contents) {
+            HexFileAppender.parse(content, value -> {
+                for (int shift = Integer.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                    encoded.write(value >>> shift);
+                }
+            });
+        }
+        return encoded.toByteArray();
+    }
+
+    private void readCompressed(String file, BlockDecoder decoder) throws IOException {
+        try (CompressedFile fromFile = new CompressedFile(Paths.get(file))) {
+            fromFile.inflate(0, fromFile.size(), inflatePool, decoder);
+        }
+    }
+
+    private BlockDecoder compressedContentDecoder(String file, ChunkWriter chunks) {
+        if (hasExtension(file, COMPRESSED_HEX_FILE_EXTENSION)) {
+            return new HexBlockDecoder(chunks);
+        }
+        return new TextBlockDecoder(chunks);
+    }
+
+    private void readList(String file, ChunkWriter chunks) throws IOException {
+        try (InputStream fromFile = new BufferedInputStream(new FileInputStream(file))) {
+            StringListCodec.readRecords(fromFile, chunks::appendElement);
+        }
     }
 
     private String createReturnString(StringBuilder builder) {
         return builder.toString().trim();
     }
 
-    private Path createAbsolutePathFromPathRelativeToWorkingDir(String relativePath) {
+    Path createAbsolutePathFromPathRelativeToWorkingDir(String relativePath) {
         return workingDir.resolve(Paths.get(relativePath));
     }
+
+    /**
+     * Thrown by the consumer that collects content for the read cache, to stop decoding a file
+     * whose content does not fit in the cache.
+     */
+    private static class TooLargeToCache extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private TooLargeToCache() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Reads at most a given number of bytes from another stream.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream source, long maxBytes) {
+            super(source);
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = super.read(buf, offset, (int)Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the <code>int</code> values of a hex file, and hands them to a chunk writer formatted
+ * as space-separated hex text, like {@link MappedHexFile#formatValues(int,
+ * java.util.function.Consumer)}.
+ */
+class HexBlockDecoder implements BlockDecoder {
+    private final ChunkWriter chunks;
+    private final byte[] chunk = new byte[FileHandler.CHUNK_SIZE];
+    private final ByteBuffer out = ByteBuffer.wrap(chunk);
+
+    HexBlockDecoder(ChunkWriter chunks) {
+        this.chunks = chunks;
+    }
+
+    @Override
+    public void decode(ByteBuffer block, boolean endOfFile) {
+        while (block.remaining() >= Integer.BYTES) {
+            if (out.remaining() <= HexFormatter.MAX_FORMATTED_LENGTH) {
+                deliver();
+            }
+            HexFormatter.format(block.getInt(), out);
+            out.put((byte)' ');
+        }
+        if (endOfFile && out.position() > 0) {
+            deliver();
+        }
+    }
+
+    private void deliver() {
+        chunks.deliver(new String(chunk, 0, out.position(), StandardCharsets.US_ASCII));
+        out.clear();
+    }
+}
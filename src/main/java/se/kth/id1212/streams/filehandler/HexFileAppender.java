@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Appends space-separated hexadecimal values to a hex file. The content is parsed in one single
+ * pass, without splitting it into strings. Parsed values are collected in a buffer, and written to
+ * the file each time the buffer is full. The buffers are direct buffers taken from a small shared
+ * pool, and returned when the appender is closed. If all pooled buffers are in use, a heap buffer
+ * is used instead, so the direct memory used by appenders does not depend on the number of
+ * threads that write. If the content contains a malformed value, nothing of that content is
+ * written to the file.
+ */
+class HexFileAppender implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HEX_RADIX = 16;
+    private static final long MAX_MAGNITUDE = 1L << 31;
+    private static final int NO_OF_POOLED_BUFFERS = 16;
+    private static final BlockingQueue<ByteBuffer> BUFFERS
+            = new ArrayBlockingQueue<>(NO_OF_POOLED_BUFFERS);
+    private static final AtomicInteger NO_OF_DIRECT_BUFFERS = new AtomicInteger();
+    private final FileChannel toFile;
+    private final ByteBuffer buffer;
+
+    /**
+     * Opens the specified file for appending. The file is created if it does not exist.
+     *
+     * @param file The file to append to.
+     * @throws IOException If failed to open the file.
+     */
+    HexFileAppender(Path file) throws IOException {
+        toFile = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        toFile.position(toFile.size());
+        buffer = takeBuffer();
+    }
+
+    /**
+     * Parses the specified content and appends the values to the file. The values must be
+     * separated by whitespace, and each value must be a valid argument to
+     * <code>Integer.parseInt(value, 16)</code>.
+     *
+     * @param content The values to append.
+     * @throws MalformedContentException If the content contains a malformed value. In that case,
+     *                                   nothing of the content is written to the file.
+     * @throws IOException               If failed to write to the file.
+     */
+    void append(CharSequence content) throws IOException {
+        long contentStart = position();
+        try {
+            parse(content, value -> {
+                if (!buffer.hasRemaining()) {
+                    flushUnchecked();
+                }
+                buffer.putInt(value);
+            });
+        } catch (MalformedContentException mce) {
+            rollBack(contentStart);
+            throw mce;
+        } catch (UncheckedIOException ioe) {
+            throw ioe.getCause();
+        }
+    }
+
+    /**
+     * Parses the specified content, and hands each value to the specified consumer. The values
+     * must be formatted as described in {@link #append(java.lang.CharSequence)}.
+     *
+     * @param content  The values to parse.
+     * @param putValue Receives the values, in the order they appear in the content.
+     * @throws MalformedContentException If the content contains a malformed value. The values
+     *                                   before the malformed value have been handed to
+     *                                   <code>putValue</code>.
+     */
+    static void parse(CharSequence content, IntConsumer putValue)
+            throws MalformedContentException {
+        int length = content.length();
+        int index = 0;
+        while (index < length) {
+            if (Character.isWhitespace(content.charAt(index))) {
+                index++;
+                continue;
+            }
+            int tokenStart = index;
+            boolean negative = false;
+            char first = content.charAt(index);
+            if (first == '-' || first == '+') {
+                negative = first == '-';
+                index++;
+            }
+            long magnitude = 0;
+            int digitsStart = index;
+            for (; index < length && !Character.isWhitespace(content.charAt(index)); index++) {
+                int digit = Character.digit(content.charAt(index), HEX_RADIX);
+                if (digit < 0 || magnitude > MAX_MAGNITUDE) {
+                    magnitude = -1;
+                    break;
+                }
+                magnitude = magnitude * HEX_RADIX + digit;
+            }
+            if (magnitude < 0 || index == digitsStart || magnitude > MAX_MAGNITUDE
+                || (!negative && magnitude == MAX_MAGNITUDE)) {
+                throw malformed(content, tokenStart);
+            }
+            putValue.accept((int)(negative ? -magnitude : magnitude));
+        }
+    }
+
+    /**
+     * @return The size the file will have when all buffered values are written.
+     * @throws IOException If failed to read the file position.
+     */
+    long position() throws IOException {
+        return toFile.position() + buffer.position();
+    }
+
+    /**
+     * Removes everything appended after the specified position, which must have been returned by
+     * {@link #position()}.
+     *
+     * @param position The new size of the file.
+     * @throws IOException If failed to truncate the file.
+     */
+    void rollBack(long position) throws IOException {
+        long writtenToFile = toFile.position();
+        if (position >= writtenToFile) {
+            buffer.position((int)(position - writtenToFile));
+        } else {
+            buffer.clear();
+            toFile.truncate(position);
+            toFile.position(position);
+        }
+    }
+
+    /**
+     * Writes all buffered values and forces them to the storage device.
+     *
+     * @throws IOException If failed to write to the file.
+     */
+    void sync() throws IOException {
+        flush();
+        toFile.force(true);
+    }
+
+    /**
+     * Writes all buffered values and closes the file.
+     *
+     * @throws IOException If failed to write to the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                toFile.close();
+            } finally {
+                if (buffer.isDirect()) {
+                    BUFFERS.offer(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A pooled direct buffer, a new direct buffer if fewer than the pool size have been
+     *         created, or else a new heap buffer.
+     */
+    private static ByteBuffer takeBuffer() {
+        ByteBuffer pooled = BUFFERS.poll();
+        if (pooled != null) {
+            pooled.clear();
+            return pooled;
+        }
+        if (NO_OF_DIRECT_BUFFERS.getAndUpdate(
+                count -> count < NO_OF_POOLED_BUFFERS ? count + 1 : count)
+            < NO_OF_POOLED_BUFFERS) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            toFile.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void flushUnchecked() {
+        try {
+            flush();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private static MalformedContentException malformed(CharSequence content, int tokenStart) {
+        int tokenEnd = tokenStart;
+        while (tokenEnd < content.length() && !Character.isWhitespace(content.charAt(tokenEnd))) {
+            tokenEnd++;
+        }
+        String token = content.subSequence(tokenStart, tokenEnd).toString();
+        return new MalformedContentException("Malformed hex value \"" + token + "\" at position "
+                                             + tokenStart, tokenStart);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formats <code>int</code> values as hexadecimal text, straight into a byte buffer. The output is
+ * identical to that of <code>Integer.toString(value, 16)</code>, but no objects are created.
+ */
+public final class HexFormatter {
+    /**
+     * The maximum number of bytes written by {@link #format(int, java.nio.ByteBuffer)}, which is
+     * the length of <code>-80000000</code>.
+     */
+    public static final int MAX_FORMATTED_LENGTH = 9;
+    private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b',
+                                          'c', 'd', 'e', 'f'};
+    private static final int BITS_PER_DIGIT = 4;
+    private static final int DIGIT_MASK = 0xf;
+
+    private HexFormatter() {
+    }
+
+    /**
+     * Writes the specified value as lower case hexadecimal ASCII text to the specified buffer,
+     * starting at the buffer's current position. Negative values are preceded by a minus sign.
+     *
+     * @param value The value to format.
+     * @param out   The buffer to which the text is written. Must have at least
+     *              {@link #MAX_FORMATTED_LENGTH} bytes remaining.
+     * @return The number of bytes written.
+     */
+    public static int format(int value, ByteBuffer out) {
+        int start = out.position();
+        long magnitude = value;
+        if (magnitude < 0) {
+            out.put((byte)'-');
+            magnitude = -magnitude;
+        }
+        int significantBits = Long.SIZE - Long.numberOfLeadingZeros(magnitude);
+        int noOfDigits = Math.max(1, (significantBits + BITS_PER_DIGIT - 1) / BITS_PER_DIGIT);
+        for (int digit = noOfDigits - 1; digit >= 0; digit--) {
+            out.put(DIGITS[(int)(magnitude >>> (digit * BITS_PER_DIGIT)) & DIGIT_MASK]);
+        }
+        return out.position() - start;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * A sparse index of line offsets in a text file, stored in a file next to the text file. The index
+ * holds the byte offset of every {@link #LINES_PER_ENTRY}th line, which means any line can be
+ * found with one seek and a scan of at most that many lines. The index is updated incrementally,
+ * only content appended since the last update is scanned. The index is rebuilt if the text file
+ * has been replaced or truncated.
+ */
+class LineIndex {
+    /**
+     * Index files have the name of the indexed file plus this extension.
+     */
+    static final String INDEX_FILE_EXTENSION = ".idx";
+    static final int LINES_PER_ENTRY = 1024;
+    private static final int MAGIC = 0x4c494458;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 3 * Long.BYTES;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private final Path textFile;
+    private final Path indexFile;
+    private long lineCount;
+    private long indexedLength;
+
+    /**
+     * Creates an index of the specified text file. Nothing is read or written until
+     * {@link #update()} is called.
+     *
+     * @param textFile The indexed file.
+     */
+    LineIndex(Path textFile) {
+        this.textFile = textFile;
+        this.indexFile = indexFileOf(textFile);
+    }
+
+    /**
+     * @param textFile A text file.
+     * @return The path of the index of the specified file.
+     */
+    static Path indexFileOf(Path textFile) {
+        return Paths.get(textFile.toString() + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Index files are internal to the file handler, and are not listed, counted or copied with
+     * the directories containing them.
+     *
+     * @param file Any file.
+     * @return <code>true</code> if the specified file is a line index.
+     */
+    static boolean isIndexFile(Path file) {
+        return file.toString().endsWith(INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * @return <code>true</code> if the index file exists.
+     */
+    boolean exists() {
+        return Files.exists(indexFile);
+    }
+
+    /**
+     * Brings the index up to date with the text file, creating the index file if it does not
+     * exist. Must be called holding at least the read lock of the text file, and the write lock of
+     * the index file.
+     *
+     * @throws IOException If failed to read the text file or to write the index.
+     */
+    void update() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(textFile, BasicFileAttributes.class);
+        int fileId = Objects.hashCode(attrs.fileKey());
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                                                  StandardOpenOption.READ,
+                                                  StandardOpenOption.WRITE);
+             FileChannel text = FileChannel.open(textFile, StandardOpenOption.READ)) {
+            if (!readHeader(index, fileId) || attrs.size() < indexedLength) {
+                index.truncate(0);
+                lineCount = 0;
+                indexedLength = 0;
+                index.write(ByteBuffer.allocate(Long.BYTES), HEADER_SIZE);
+            }
+            if (attrs.size() > indexedLength) {
+                scan(text, index, attrs.size());
+            }
+            writeHeader(index, fileId);
+        }
+    }
+
+    /**
+     * Returns the byte offset of the closest indexed line at or before the specified line. Must be
+     * called after {@link #update()}, holding at least the read locks of both files.
+     *
+     * @param line The number of the searched line, the first line has number zero.
+     * @return The number of the indexed line, and its byte offset.
+     * @throws IOException If failed to read the index.
+     */
+    long[] findLineAtOrBefore(long line) throws IOException {
+        long entry = Math.min(line, lineCount) / LINES_PER_ENTRY;
+        ByteBuffer offset = ByteBuffer.allocate(Long.BYTES);
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            while (offset.hasRemaining()) {
+                if (index.read(offset, HEADER_SIZE + entry * Long.BYTES + offset.position()) < 0) {
+                    throw new IOException("Index file " + indexFile + " is truncated.");
+                }
+            }
+        }
+        return new long[]{entry * LINES_PER_ENTRY, offset.getLong(0)};
+    }
+
+    private boolean readHeader(FileChannel index, int fileId) throws IOException {
+        if (index.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        index.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != LINES_PER_ENTRY
+            || header.getLong() != fileId) {
+            return false;
+        }
+        lineCount = header.getLong();
+        indexedLength = header.getLong();
+        return true;
+    }
+
+    private void writeHeader(FileChannel index, int fileId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(LINES_PER_ENTRY).putLong(fileId).putLong(lineCount)
+                .putLong(indexedLength).flip();
+        while (header.hasRemaining()) {
+            index.write(header, header.position());
+        }
+    }
+
+    private void scan(FileChannel text, FileChannel index, long textSize) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        ByteBuffer newEntries = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long nextEntryPosition = HEADER_SIZE + (lineCount / LINES_PER_ENTRY + 1) * Long.BYTES;
+        for (long pos = indexedLength; pos < textSize;) {
+            buf.clear().limit((int)Math.min(buf.capacity(), textSize - pos));
+            int count = text.read(buf, pos);
+            if (count < 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (buf.get(i) == '\n') {
+                    lineCount++;
+                    if (lineCount % LINES_PER_ENTRY == 0) {
+                        if (!newEntries.hasRemaining()) {
+                            nextEntryPosition += writeEntries(index, newEntries,
+                                                              nextEntryPosition);
+                        }
+                        newEntries.putLong(pos + i + 1);
+                    }
+                }
+            }
+            pos += count;
+            indexedLength = pos;
+        }
+        writeEntries(index, newEntries, nextEntryPosition);
+    }
+
+    private int writeEntries(FileChannel index, ByteBuffer entries, long position)
+            throws IOException {
+        entries.flip();
+        int written = entries.remaining();
+        while (entries.hasRemaining()) {
+            index.write(entries, position + entries.position());
+        }
+        entries.clear();
+        return written;
+    }
+}
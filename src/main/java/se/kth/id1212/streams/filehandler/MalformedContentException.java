@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+
+/**
+ * Thrown when content that shall be written to a file does not have the format required by the
+ * file's extension. Nothing of the malformed content has been written when this exception is
+ * thrown.
+ */
+public class MalformedContentException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final int position;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param msg      A description of the malformed content.
+     * @param position The index of the first character of the malformed content.
+     */
+    public MalformedContentException(String msg, int position) {
+        super(msg);
+        this.position = position;
+    }
+
+    /**
+     * @return The index of the first character of the malformed content.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
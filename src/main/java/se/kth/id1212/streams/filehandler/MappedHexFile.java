@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Gives access to the <code>int</code> values in a hex file by mapping the file into memory. The
+ * values are read straight from the mapped pages, without boxing or copying.
+ */
+class MappedHexFile {
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private final List<IntBuffer> segments = new ArrayList<>();
+
+    /**
+     * Maps the specified file into memory. Any trailing bytes that do not form a complete
+     * <code>int</code> are ignored.
+     *
+     * @param file The hex file to map.
+     * @throws IOException If failed to map the file.
+     */
+    MappedHexFile(Path file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * Maps the specified file into memory, starting at the specified offset. Any trailing bytes
+     * that do not form a complete <code>int</code> are ignored.
+     *
+     * @param file   The hex file to map.
+     * @param offset The position of the first value to map, must be a multiple of four.
+     * @throws IOException If failed to map the file.
+     */
+    MappedHexFile(Path file, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long intBytes = completeValuesEnd(channel.size());
+            for (long pos = offset; pos < intBytes; pos += MAX_SEGMENT_SIZE) {
+                long segmentSize = Math.min(MAX_SEGMENT_SIZE, intBytes - pos);
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, pos, segmentSize)
+                        .asIntBuffer());
+            }
+        }
+    }
+
+    /**
+     * @param fileSize The size of a hex file.
+     * @return The position after the last complete value in a file with the specified size.
+     */
+    static long completeValuesEnd(long fileSize) {
+        return fileSize - fileSize % Integer.BYTES;
+    }
+
+    /**
+     * @return All values in the file, in the order they were written.
+     */
+    IntStream values() {
+        return segments.stream().flatMapToInt(
+                segment -> IntStream.range(0, segment.limit()).map(segment::get));
+    }
+
+    /**
+     * Hands the values in the file, formatted as space-separated hex text, to the specified
+     * consumer. The text is formatted straight into a byte buffer, only one string per chunk is
+     * created.
+     *
+     * @param chunkSize The maximum length of each chunk.
+     * @param showChunk Receives the formatted text.
+     */
+    void formatValues(int chunkSize, Consumer<String> showChunk) {
+        byte[] chunk = new byte[chunkSize];
+        ByteBuffer out = ByteBuffer.wrap(chunk);
+        for (IntBuffer segment : segments) {
+            for (int i = 0; i < segment.limit(); i++) {
+                if (out.remaining() <= HexFormatter.MAX_FORMATTED_LENGTH) {
+                    deliver(out, showChunk);
+                }
+                HexFormatter.format(segment.get(i), out);
+                out.put((byte)' ');
+            }
+        }
+        if (out.position() > 0) {
+            deliver(out, showChunk);
+        }
+    }
+
+    private void deliver(ByteBuffer out, Consumer<String> showChunk) {
+        showChunk.accept(new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+        out.clear();
+    }
+}
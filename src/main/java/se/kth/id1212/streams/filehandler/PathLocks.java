@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read/write locks for files. Each path is mapped to one of a fixed number of fair
+ * <code>ReadWriteLock</code>s, which means any number of readers of a file can proceed
+ * concurrently, writers of a file are let in one at a time in arrival order, and operations on
+ * different files are very unlikely to wait for each other.
+ * <p>
+ * Line index files have stripes of their own, which are ordered after the stripes of all other
+ * files. The index of a text file is locked while the text file is already locked, and since the
+ * two can never share a lock, an index can be written by a thread holding the read lock of the
+ * text file.
+ * <p>
+ * Files that are also read and written by an {@link AsyncFileHandler} are locked with both the
+ * striped locks and the {@link AsyncPathLocks} of that handler, see
+ * {@link #alsoLocking(AsyncPathLocks)}. The asynchronous locks are always taken after the striped
+ * locks, and, if a method locks two files, in the order of their paths.
+ */
+class PathLocks {
+    private static final int NO_OF_STRIPES = 64;
+    private final ReadWriteLock[] stripes;
+    private final AsyncPathLocks asyncLocks;
+
+    PathLocks() {
+        this.stripes = new ReadWriteLock[2 * NO_OF_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock(true);
+        }
+        this.asyncLocks = null;
+    }
+
+    private PathLocks(ReadWriteLock[] stripes, AsyncPathLocks asyncLocks) {
+        this.stripes = stripes;
+        this.asyncLocks = asyncLocks;
+    }
+
+    /**
+     * Returns locks that share the stripes of these locks, and that, after a stripe is locked,
+     * also wait for the specified asynchronous lock of the same file. Operations using the returned
+     * locks therefore never run concurrently with conflicting operations of the
+     * {@link AsyncFileHandler} that uses the asynchronous locks.
+     *
+     * @param asyncLocks The locks of an asynchronous file handler.
+     * @return Locks that acquire both the striped and the asynchronous lock of a file.
+     */
+    PathLocks alsoLocking(AsyncPathLocks asyncLocks) {
+        return new PathLocks(stripes, asyncLocks);
+    }
+
+    /**
+     * Returns the lock of the specified file. The same file always gets the same lock, no matter
+     * how the path is written.
+     *
+     * @param file The file to lock.
+     * @return The lock of the specified file.
+     */
+    ReadWriteLock lockFor(Path file) {
+        ReadWriteLock stripe = stripes[stripeOf(file)];
+        if (asyncLocks == null) {
+            return stripe;
+        }
+        return new ReadWriteLock() {
+            @Override
+            public Lock readLock() {
+                return new FileLock(stripe.readLock(), file, false);
+            }
+
+            @Override
+            public Lock writeLock() {
+                return new FileLock(stripe.writeLock(), file, true);
+            }
+        };
+    }
+
+    /**
+     * Locks the specified source file for reading and the specified target file for writing. The
+     * locks are always taken in the same order, so two threads copying files in opposite
+     * directions can not deadlock. If both files have the same lock, only the write lock is taken.
+     *
+     * @param source The file that is read.
+     * @param target The file that is written.
+     * @return The locks that were taken, to be passed to {@link #unlock(Lock[])}.
+     */
+    Lock[] lockForCopy(Path source, Path target) {
+        return lockInOrder(source, false, target);
+    }
+
+    /**
+     * Locks both the specified files for writing, in the same order as
+     * {@link #lockForCopy(Path, Path)}.
+     *
+     * @param source The file that is moved.
+     * @param target The new path of the file.
+     * @return The locks that were taken, to be passed to {@link #unlock(Lock[])}.
+     */
+    Lock[] lockForMove(Path source, Path target) {
+        return lockInOrder(source, true, target);
+    }
+
+    private Lock[] lockInOrder(Path source, boolean writeSource, Path target) {
+        int sourceStripe = stripeOf(source);
+        int targetStripe = stripeOf(target);
+        Lock sourceLock = writeSource ? stripes[sourceStripe].writeLock()
+                                      : stripes[sourceStripe].readLock();
+        Lock targetLock = stripes[targetStripe].writeLock();
+        Lock[] locks;
+        if (sourceStripe == targetStripe) {
+            locks = new Lock[]{targetLock};
+        } else if (sourceStripe < targetStripe) {
+            locks = new Lock[]{sourceLock, targetLock};
+        } else {
+            locks = new Lock[]{targetLock, sourceLock};
+        }
+        if (asyncLocks != null) {
+            locks = withAsyncLocks(locks, source, writeSource, target);
+        }
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+        return locks;
+    }
+
+    private Lock[] withAsyncLocks(Lock[] stripeLocks, Path source, boolean writeSource,
+                                  Path target) {
+        Lock sourceLock = new FileLock(null, source, writeSource);
+        Lock targetLock = new FileLock(null, target, true);
+        int order = source.toAbsolutePath().normalize()
+                .compareTo(target.toAbsolutePath().normalize());
+        if (order == 0) {
+            Lock[] locks = Arrays.copyOf(stripeLocks, stripeLocks.length + 1);
+            locks[stripeLocks.length] = targetLock;
+            return locks;
+        }
+        Lock[] locks = Arrays.copyOf(stripeLocks, stripeLocks.length + 2);
+        boolean sourceFirst = order < 0;
+        locks[stripeLocks.length] = sourceFirst ? sourceLock : targetLock;
+        locks[stripeLocks.length + 1] = sourceFirst ? targetLock : sourceLock;
+        return locks;
+    }
+
+    /**
+     * Unlocks the specified locks in reverse order.
+     *
+     * @param locks Locks returned by {@link #lockForCopy(Path, Path)} or
+     *              {@link #lockForMove(Path, Path)}.
+     */
+    static void unlock(Lock[] locks) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    private int stripeOf(Path file) {
+        int hash = file.toAbsolutePath().normalize().hashCode();
+        hash ^= hash >>> 16;
+        int stripe = (hash & Integer.MAX_VALUE) % NO_OF_STRIPES;
+        return LineIndex.isIndexFile(file) ? NO_OF_STRIPES + stripe : stripe;
+    }
+
+    /**
+     * The asynchronous lock of a file, taken after the striped lock of the file, if any. If the
+     * asynchronous lock is not granted, the striped lock is released again. Conditions are not
+     * supported, since the lock consists of two locks.
+     */
+    private class FileLock implements Lock {
+        private final Lock stripeLock;
+        private final Path file;
+        private final boolean exclusive;
+
+        FileLock(Lock stripeLock, Path file, boolean exclusive) {
+            this.stripeLock = stripeLock;
+            this.file = file;
+            this.exclusive = exclusive;
+        }
+
+        @Override
+        public void lock() {
+            if (stripeLock != null) {
+                stripeLock.lock();
+            }
+            try {
+                asyncLocks.lock(file, exclusive).join();
+            } catch (RuntimeException notLocked) {
+                unlockStripe();
+                throw notLocked;
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (stripeLock != null) {
+                stripeLock.lockInterruptibly();
+            }
+            awaitAsyncLock(Long.MAX_VALUE);
+        }
+
+        @Override
+        public boolean tryLock() {
+            if (stripeLock != null && !stripeLock.tryLock()) {
+                return false;
+            }
+            if (asyncLocks.tryLock(file, exclusive)) {
+                return true;
+            }
+            unlockStripe();
+            return false;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(time);
+            if (stripeLock != null && !stripeLock.tryLock(time, unit)) {
+                return false;
+            }
+            return awaitAsyncLock(deadline - System.nanoTime());
+        }
+
+        @Override
+        public void unlock() {
+            asyncLocks.unlock(file, exclusive);
+            unlockStripe();
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Must be called holding the striped lock, if any, which is released unless the
+         * asynchronous lock is granted.
+         *
+         * @param timeoutNanos The maximum time to wait, <code>Long.MAX_VALUE</code> means there
+         *                     is no maximum.
+         * @return <code>true</code> if the asynchronous lock was granted.
+         */
+        private boolean awaitAsyncLock(long timeoutNanos) throws InterruptedException {
+            CompletableFuture<Void> request = asyncLocks.lock(file, exclusive);
+            boolean granted = false;
+            try {
+                if (timeoutNanos == Long.MAX_VALUE) {
+                    request.get();
+                } else {
+                    request.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+                }
+                granted = true;
+            } catch (TimeoutException notGranted) {
+            } catch (ExecutionException failed) {
+                throw new IllegalStateException("Lock request failed", failed.getCause());
+            } finally {
+                if (!granted) {
+                    asyncLocks.withdraw(file, request, exclusive);
+                    unlockStripe();
+                }
+            }
+            return granted;
+        }
+
+        private void unlockStripe() {
+            if (stripeLock != null) {
+                stripeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of decoded file content, with a limited size. When the cache is full, the least recently
+ * used content is evicted. Content is only returned if the file still has the same last modified
+ * time and size as when the content was cached.
+ */
+public class ReadCache {
+    private static final int BYTES_PER_CHAR = 2;
+    private final long capacityInBytes;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long sizeInBytes;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacityInBytes The maximum amount of memory used by cached content. Zero means
+     *                        nothing is cached.
+     */
+    ReadCache(long capacityInBytes) {
+        this.capacityInBytes = capacityInBytes;
+    }
+
+    /**
+     * @return <code>true</code> if this cache can hold any content at all.
+     */
+    boolean isEnabled() {
+        return capacityInBytes > 0;
+    }
+
+    /**
+     * Returns the cached content of the specified file.
+     *
+     * @param file  The file.
+     * @param attrs The current attributes of the file.
+     * @return The cached content, or <code>null</code> if there is no content for the current
+     *         version of the file.
+     */
+    synchronized String get(Path file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(file);
+        if (entry != null && entry.isContentOf(attrs)) {
+            hits.increment();
+            return entry.content;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the specified content. Nothing is cached if the content is larger than the capacity
+     * of this cache.
+     *
+     * @param file    The file.
+     * @param attrs   The attributes of the file when the content was read.
+     * @param content The content of the file.
+     */
+    synchronized void put(Path file, BasicFileAttributes attrs, String content) {
+        long weight = weightOf(content);
+        if (weight > capacityInBytes) {
+            return;
+        }
+        remove(file);
+        entries.put(file, new Entry(attrs, content));
+        sizeInBytes += weight;
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (sizeInBytes > capacityInBytes) {
+            sizeInBytes -= weightOf(leastRecentlyUsed.next().content);
+            leastRecentlyUsed.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes the content of the specified file, if it is cached.
+     *
+     * @param file The file.
+     */
+    synchronized void invalidate(Path file) {
+        remove(file);
+    }
+
+    /**
+     * Removes the content of all cached files in the specified directory and the directories
+     * below it.
+     *
+     * @param dir The directory.
+     */
+    synchronized void invalidateTree(Path dir) {
+        for (Iterator<Map.Entry<Path, Entry>> cached = entries.entrySet().iterator();
+             cached.hasNext();) {
+            Map.Entry<Path, Entry> entry = cached.next();
+            if (entry.getKey().startsWith(dir)) {
+                sizeInBytes -= weightOf(entry.getValue().content);
+                cached.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The number of reads that were served from this cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of reads that could not be served from this cache.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries that were evicted to make room for new content.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The amount of memory currently used by cached content.
+     */
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * @return The maximum amount of memory used by cached content.
+     */
+    public long getCapacityInBytes() {
+        return capacityInBytes;
+    }
+
+    /**
+     * @return The length of the longest content that fits in this cache.
+     */
+    long getCapacityInChars() {
+        return capacityInBytes / BYTES_PER_CHAR;
+    }
+
+    private void remove(Path file) {
+        Entry removed = entries.remove(file);
+        if (removed != null) {
+            sizeInBytes -= weightOf(removed.content);
+        }
+    }
+
+    private static long weightOf(String content) {
+        return (long)content.length() * BYTES_PER_CHAR;
+    }
+
+    private static class Entry {
+        private final long lastModified;
+        private final long size;
+        private final String content;
+
+        Entry(BasicFileAttributes attrs, String content) {
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.size = attrs.size();
+            this.content = content;
+        }
+
+        boolean isContentOf(BasicFileAttributes attrs) {
+            return lastModified == attrs.lastModifiedTime().toMillis() && size == attrs.size();
+        }
+    }
+}
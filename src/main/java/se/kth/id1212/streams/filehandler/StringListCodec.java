@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Encodes and decodes lists of strings in a compact binary format. A file in this format is a
+ * sequence of records, one for each written list, which means lists can be appended without
+ * rewriting the file, and that a file can be decoded as a stream. A record is an unsigned varint
+ * holding the number of elements, followed by the elements. Each element starts with an unsigned
+ * varint tag. If the lowest bit of the tag is zero, the rest of the tag is the length of the
+ * UTF-8 encoded element, which follows the tag. If the lowest bit is one, the rest of the tag is
+ * the index of an earlier element in the same record, with the same value. Earlier elements are
+ * numbered in the order they appeared, counting only elements that were written in full.
+ */
+class StringListCodec {
+    private static final int VARINT_PAYLOAD_BITS = 7;
+    private static final int VARINT_PAYLOAD_MASK = 0x7f;
+    private static final int VARINT_CONTINUATION_BIT = 0x80;
+    private static final int TAG_IS_REFERENCE = 1;
+    private static final int MAX_ELEMENT_BYTES = Integer.MAX_VALUE - 8;
+
+    private StringListCodec() {
+    }
+
+    /**
+     * Writes the specified elements as one record.
+     *
+     * @param elements      The elements to write.
+     * @param useDictionary If <code>true</code>, an element that has appeared before in the same
+     *                      record is written as a reference to the earlier element.
+     * @param out           The stream to which the record is written.
+     * @throws IOException If failed to write.
+     */
+    static void writeRecord(List<String> elements, boolean useDictionary, OutputStream out)
+            throws IOException {
+        Map<String, Integer> dictionary = useDictionary ? new HashMap<>() : null;
+        writeVarint(elements.size(), out);
+        for (String element : elements) {
+            Integer earlierIndex = useDictionary ? dictionary.get(element) : null;
+            if (earlierIndex != null) {
+                writeVarint((long)earlierIndex << 1 | TAG_IS_REFERENCE, out);
+                continue;
+            }
+            byte[] utf8 = element.getBytes(StandardCharsets.UTF_8);
+            writeVarint((long)utf8.length << 1, out);
+            out.write(utf8);
+            if (useDictionary) {
+                dictionary.put(element, dictionary.size());
+            }
+        }
+    }
+
+    /**
+     * Reads all records from the specified stream, and hands each element to the specified
+     * consumer, in the order they were written.
+     *
+     * @param in          The stream to read.
+     * @param showElement Receives the elements.
+     * @throws EOFException If the stream ends in the middle of a record.
+     * @throws IOException  If failed to read, or if a record is corrupt.
+     */
+    static void readRecords(InputStream in, Consumer<String> showElement) throws IOException {
+        byte[] buf = new byte[64];
+        List<String> literals = new ArrayList<>();
+        for (long noOfElements = readVarint(in, true); noOfElements >= 0;
+             noOfElements = readVarint(in, true)) {
+            literals.clear();
+            for (long i = 0; i < noOfElements; i++) {
+                long tag = readVarint(in, false);
+                if ((tag & TAG_IS_REFERENCE) != 0) {
+                    long earlierIndex = tag >>> 1;
+                    if (earlierIndex >= literals.size()) {
+                        throw corrupt();
+                    }
+                    showElement.accept(literals.get((int)earlierIndex));
+                    continue;
+                }
+                if (tag >>> 1 > MAX_ELEMENT_BYTES) {
+                    throw corrupt();
+                }
+                int length = (int)(tag >>> 1);
+                buf = readFully(in, buf, length);
+                String element = new String(buf, 0, length, StandardCharsets.UTF_8);
+                literals.add(element);
+                showElement.accept(element);
+            }
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt list record");
+    }
+
+    private static void writeVarint(long value, OutputStream out) throws IOException {
+        while ((value & ~VARINT_PAYLOAD_MASK) != 0) {
+            out.write((int)(value & VARINT_PAYLOAD_MASK) | VARINT_CONTINUATION_BIT);
+            value >>>= VARINT_PAYLOAD_BITS;
+        }
+        out.write((int)value);
+    }
+
+    private static long readVarint(InputStream in, boolean endOfStreamAllowed)
+            throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += VARINT_PAYLOAD_BITS) {
+            int b = in.read();
+            if (b < 0) {
+                if (endOfStreamAllowed && shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("File ends in the middle of a record.");
+            }
+            value |= (long)(b & VARINT_PAYLOAD_MASK) << shift;
+            if ((b & VARINT_CONTINUATION_BIT) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length.");
+    }
+
+    /**
+     * Reads the specified number of bytes into the specified buffer, or into a larger buffer if
+     * it is too small. The buffer is grown only when it is full, so a corrupt length makes it at
+     * most twice as large as the bytes that are actually there.
+     *
+     * @return The buffer holding the bytes that were read.
+     */
+    private static byte[] readFully(InputStream in, byte[] buf, int length) throws IOException {
+        for (int read = 0; read < length;) {
+            if (read == buf.length) {
+                buf = Arrays.copyOf(buf, (int)Math.min(length, 2L * buf.length));
+            }
+            int count = in.read(buf, read, Math.min(length, buf.length) - read);
+            if (count < 0) {
+                throw new EOFException("File ends in the middle of a record.");
+            }
+            read += count;
+        }
+        return buf;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes text in the default charset, and appends it to a chunk writer with each line
+ * terminator replaced by one element separator, exactly like a text file read with a
+ * <code>FileReader</code>.
+ */
+class TextBlockDecoder implements BlockDecoder {
+    private final ChunkWriter chunks;
+    private final CharsetDecoder charsetDecoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(FileHandler.CHUNK_SIZE);
+
+    TextBlockDecoder(ChunkWriter chunks) {
+        this.chunks = chunks;
+    }
+
+    @Override
+    public void decode(ByteBuffer block, boolean endOfFile) {
+        while (charsetDecoder.decode(block, chars, endOfFile).isOverflow()) {
+            appendChars();
+        }
+        if (endOfFile) {
+            while (charsetDecoder.flush(chars).isOverflow()) {
+                appendChars();
+            }
+        }
+        appendChars();
+    }
+
+    private void appendChars() {
+        chunks.appendLines(chars.array(), chars.position());
+        chars.clear();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Copies a file or a directory tree. File content is transferred from channel to channel with
+ * <code>FileChannel.transferTo</code>, which lets the operating system move the data without
+ * copying it to the Java heap. A directory tree is copied by a fork/join task per directory and per
+ * file, which means files are copied concurrently, by as many threads as the pool has. Symbolic
+ * links are copied as links, they are never followed.
+ */
+class TreeCopier {
+    private final PathLocks locks;
+    private final LongAdder copiedFiles = new LongAdder();
+    private final LongAdder copiedBytes = new LongAdder();
+
+    /**
+     * Creates a new instance, which can perform one copy operation.
+     *
+     * @param locks Each file is read holding its read lock, and written holding its write lock.
+     */
+    TreeCopier(PathLocks locks) {
+        this.locks = locks;
+    }
+
+    /**
+     * Copies the specified file or directory tree. No files are overwritten, the copy fails if the
+     * target or any file in the target tree already exists.
+     *
+     * @param source The file or directory to copy.
+     * @param target The path of the copy.
+     * @param pool   Copies the files in a directory tree. A single file is copied by the calling
+     *               thread.
+     * @return How much was copied, and how long it took.
+     * @throws IOException If failed to read or write. Files copied before the failure are not
+     *                     removed.
+     */
+    CopyProgress copy(Path source, Path target, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                pool.invoke(new DirCopy(source, target));
+            } catch (UncheckedIOException failedCopy) {
+                throw failedCopy.getCause();
+            }
+        } else {
+            copyFile(source, target);
+        }
+        return new CopyProgress(copiedFiles.sum(), copiedBytes.sum(), System.nanoTime() - start);
+    }
+
+    private void copyFile(Path source, Path target) throws IOException {
+        if (Files.isSymbolicLink(source)) {
+            Files.copy(source, target, LinkOption.NOFOLLOW_LINKS);
+            copiedFiles.increment();
+            return;
+        }
+        Lock[] taken = locks.lockForCopy(source, target);
+        try (FileChannel fromFile = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel toFile = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                                                   StandardOpenOption.WRITE)) {
+            long size = fromFile.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = fromFile.transferTo(position, size - position, toFile);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            copiedBytes.add(position);
+            copiedFiles.increment();
+        } finally {
+            PathLocks.unlock(taken);
+        }
+    }
+
+    /**
+     * Creates the target directory, and then copies all entries of the source directory in
+     * parallel.
+     */
+    private class DirCopy extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path source;
+        private final Path target;
+
+        DirCopy(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> entryCopies = new ArrayList<>();
+            try {
+                Files.createDirectory(target);
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+                    for (Path entry : entries) {
+                        if (LineIndex.isIndexFile(entry)) {
+                            continue;
+                        }
+                        Path entryTarget = target.resolve(entry.getFileName());
+                        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            entryCopies.add(new DirCopy(entry, entryTarget));
+                        } else {
+                            entryCopies.add(new FileCopy(entry, entryTarget));
+                        }
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            invokeAll(entryCopies);
+        }
+    }
+
+    private class FileCopy extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path source;
+        private final Path target;
+
+        FileCopy(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                copyFile(source, target);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Deletes a file or a directory tree. A directory tree is deleted post-order by a fork/join task
+ * per directory, which deletes the files in its directory and waits for the tasks of its
+ * subdirectories before deleting the directory itself. Directories are thereby deleted
+ * concurrently, by as many threads as the pool has. Symbolic links are deleted, they are never
+ * followed.
+ */
+class TreeDeleter {
+    /**
+     * Progress is reported each time this many more files have been deleted.
+     */
+    static final int PROGRESS_INTERVAL = 10000;
+    private final PathLocks locks;
+    private final Consumer<DeleteProgress> showProgress;
+    private final AtomicLong deletedFiles = new AtomicLong();
+    private final LongAdder deletedDirs = new LongAdder();
+    private long start;
+
+    /**
+     * Creates a new instance, which can perform one delete operation.
+     *
+     * @param locks        Each file is deleted holding its write lock.
+     * @param showProgress Receives the progress of the operation while it is running. Is called
+     *                     by the threads of the pool, and must not block.
+     */
+    TreeDeleter(PathLocks locks, Consumer<DeleteProgress> showProgress) {
+        this.locks = locks;
+        this.showProgress = showProgress;
+    }
+
+    /**
+     * Deletes the specified file or directory tree.
+     *
+     * @param path The file or directory to delete.
+     * @param pool Deletes the directories in a tree. A single file is deleted by the calling
+     *             thread.
+     * @return How much was deleted, and how long it took.
+     * @throws IOException If failed to delete. Files deleted before the failure are not restored.
+     */
+    DeleteProgress delete(Path path, ForkJoinPool pool) throws IOException {
+        start = System.nanoTime();
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                pool.invoke(new DirDelete(path));
+            } catch (UncheckedIOException failedDelete) {
+                throw failedDelete.getCause();
+            }
+        } else {
+            deleteFile(path);
+        }
+        return progress();
+    }
+
+    private void deleteFile(Path file) throws IOException {
+        Lock writeLock = locks.lockFor(file).writeLock();
+        writeLock.lock();
+        try {
+            Files.delete(file);
+        } finally {
+            writeLock.unlock();
+        }
+        if (deletedFiles.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+            showProgress.accept(progress());
+        }
+    }
+
+    private DeleteProgress progress() {
+        return new DeleteProgress(deletedFiles.get(), deletedDirs.sum(), System.nanoTime() - start);
+    }
+
+    /**
+     * Deletes all files in a directory, waits for the subdirectories to be deleted, and then
+     * deletes the directory.
+     */
+    private class DirDelete extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+
+        DirDelete(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirDelete> subdirDeletes = new ArrayList<>();
+            try {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                    for (Path entry : entries) {
+                        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            DirDelete subdirDelete = new DirDelete(entry);
+                            subdirDelete.fork();
+                            subdirDeletes.add(subdirDelete);
+                        } else {
+                            deleteFile(entry);
+                        }
+                    }
+                }
+                for (DirDelete subdirDelete : subdirDeletes) {
+                    subdirDelete.join();
+                }
+                Files.delete(dir);
+                deletedDirs.increment();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+}
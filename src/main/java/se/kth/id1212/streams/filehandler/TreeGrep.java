@@ -0,0 +1,367 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the text files in a directory tree for lines matching a pattern. Each file is mapped
+ * into memory and split into chunks that end at line boundaries, and all chunks of all files are
+ * scanned in parallel by fork/join tasks. A pattern without regular expression metacharacters is
+ * searched for as a sequence of UTF-8 bytes, straight in the mapped pages, with the
+ * Boyer-Moore-Horspool algorithm. Other patterns are matched as regular expressions against the
+ * decoded lines. Symbolic links are not followed.
+ */
+class TreeGrep {
+    /**
+     * Files larger than this are split into chunks of about this size, which are scanned in
+     * parallel.
+     */
+    static final int SPLIT_BYTES = 4 * 1024 * 1024;
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final byte NEWLINE = '\n';
+    private final PathLocks locks;
+    private final Path base;
+    private final byte[] literal;
+    private final int[] skip;
+    private final Pattern regex;
+    private final ChunkWriter matches;
+    private final LongAdder noOfMatches = new LongAdder();
+
+    /**
+     * Creates a new instance, which can perform one search.
+     *
+     * @param locks     Each file is searched holding its read lock.
+     * @param base      The paths of matching files are shown relative to this directory.
+     * @param pattern   A literal string or a regular expression. A line matches if the pattern is
+     *                  found anywhere in it.
+     * @param showChunk Receives the matches, one per line, on the form
+     *                  <code>path:line:text</code>. The first line in a file has number zero. The
+     *                  matches of a file are delivered together, in line order, but files are
+     *                  delivered in any order.
+     */
+    TreeGrep(PathLocks locks, Path base, String pattern, Consumer<String> showChunk) {
+        this.locks = locks;
+        this.base = base;
+        this.matches = new ChunkWriter(showChunk);
+        if (isLiteral(pattern)) {
+            this.literal = pattern.getBytes(StandardCharsets.UTF_8);
+            this.skip = createSkipTable(literal);
+            this.regex = null;
+        } else {
+            this.literal = null;
+            this.skip = null;
+            this.regex = Pattern.compile(pattern);
+        }
+    }
+
+    /**
+     * Searches the specified text file, or all text files in the specified directory tree.
+     *
+     * @param path An absolute and normalized path of a file or directory.
+     * @param pool Scans the files.
+     * @return The number of matching lines.
+     * @throws IOException If failed to read a file or directory.
+     */
+    long grep(Path path, ForkJoinPool pool) throws IOException {
+        try {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                pool.invoke(new DirGrep(path));
+            } else {
+                pool.invoke(new FileGrep(path));
+            }
+        } catch (UncheckedIOException failedGrep) {
+            throw failedGrep.getCause();
+        }
+        return noOfMatches.sum();
+    }
+
+    private static boolean isLiteral(String pattern) {
+        if (pattern.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_METACHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] createSkipTable(byte[] literal) {
+        int[] skip = new int[256];
+        Arrays.fill(skip, literal.length);
+        for (int i = 0; i < literal.length - 1; i++) {
+            skip[literal[i] & 0xff] = literal.length - 1 - i;
+        }
+        return skip;
+    }
+
+    private void grepFile(Path file) throws IOException {
+        Lock readLock = locks.lockFor(file).readLock();
+        readLock.lock();
+        try (FileChannel fromFile = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<ChunkGrep> chunkGreps = new ArrayList<>();
+            long size = fromFile.size();
+            for (long start = 0; start < size;) {
+                long end = lineBoundaryAtOrAfter(fromFile, Math.min(size, start + SPLIT_BYTES),
+                                                 size);
+                chunkGreps.add(new ChunkGrep(fromFile.map(FileChannel.MapMode.READ_ONLY, start,
+                                                          end - start)));
+                start = end;
+            }
+            ForkJoinTask.invokeAll(chunkGreps);
+            Path shownPath = base.relativize(file);
+            long firstLineOfChunk = 0;
+            List<String> fileMatches = new ArrayList<>();
+            for (ChunkGrep chunkGrep : chunkGreps) {
+                ChunkMatches found = chunkGrep.join();
+                for (int i = 0; i < found.lines.size(); i++) {
+                    fileMatches.add(shownPath + ":" + (firstLineOfChunk + found.lines.get(i))
+                                    + ":" + found.texts.get(i));
+                }
+                firstLineOfChunk += found.noOfNewlines;
+            }
+            deliver(fileMatches);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void deliver(List<String> fileMatches) {
+        if (fileMatches.isEmpty()) {
+            return;
+        }
+        noOfMatches.add(fileMatches.size());
+        synchronized (matches) {
+            for (String match : fileMatches) {
+                matches.append(match + System.lineSeparator());
+            }
+            matches.flush();
+        }
+    }
+
+    /**
+     * Returns the position after the first newline at or after the specified position, or the
+     * file size if there is no such newline.
+     */
+    private long lineBoundaryAtOrAfter(FileChannel file, long position, long size)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(FileHandler.CHUNK_SIZE);
+        for (long blockStart = position; blockStart < size; blockStart += buf.limit()) {
+            buf.clear();
+            int count = file.read(buf, blockStart);
+            if (count < 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (buf.get(i) == NEWLINE) {
+                    return blockStart + i + 1;
+                }
+            }
+            buf.limit(count);
+        }
+        return size;
+    }
+
+    /**
+     * The lines in a chunk that matched, numbered from the start of the chunk, and the number of
+     * newlines in the chunk.
+     */
+    private static class ChunkMatches {
+        private final List<Long> lines = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private long noOfNewlines;
+
+        void add(long line, String text) {
+            lines.add(line);
+            texts.add(text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+        }
+    }
+
+    private class ChunkGrep extends RecursiveTask<ChunkMatches> {
+        private static final long serialVersionUID = 1L;
+        private final ByteBuffer chunk;
+
+        ChunkGrep(ByteBuffer chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected ChunkMatches compute() {
+            return literal != null ? searchLiteral() : searchRegex();
+        }
+
+        private ChunkMatches searchLiteral() {
+            ChunkMatches found = new ChunkMatches();
+            long line = 0;
+            int lineStart = 0;
+            int counted = 0;
+            for (int match = indexOfLiteral(0); match >= 0;) {
+                for (; counted < match; counted++) {
+                    if (chunk.get(counted) == NEWLINE) {
+                        line++;
+                        lineStart = counted + 1;
+                    }
+                }
+                int lineEnd = indexOfNewline(match);
+                found.add(line, decode(lineStart, lineEnd));
+                counted = lineEnd;
+                match = lineEnd < chunk.limit() ? indexOfLiteral(lineEnd) : -1;
+            }
+            for (; counted < chunk.limit(); counted++) {
+                if (chunk.get(counted) == NEWLINE) {
+                    line++;
+                }
+            }
+            found.noOfNewlines = line;
+            return found;
+        }
+
+        private ChunkMatches searchRegex() {
+            ChunkMatches found = new ChunkMatches();
+            CharBuffer text = StandardCharsets.UTF_8.decode(chunk.duplicate());
+            Matcher matcher = regex.matcher("");
+            long line = 0;
+            int lineStart = 0;
+            for (int i = 0; i <= text.limit(); i++) {
+                if (i == text.limit() || text.get(i) == NEWLINE) {
+                    if (i > lineStart || i < text.limit()) {
+                        CharSequence lineText = text.subSequence(lineStart, i);
+                        if (matcher.reset(lineText).find()) {
+                            found.add(line, lineText.toString());
+                        }
+                    }
+                    if (i < text.limit()) {
+                        line++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            found.noOfNewlines = line;
+            return found;
+        }
+
+        private int indexOfLiteral(int from) {
+            int last = literal.length - 1;
+            for (int i = from; i + last < chunk.limit(); i += skip[chunk.get(i + last) & 0xff]) {
+                int j = last;
+                while (j >= 0 && chunk.get(i + j) == literal[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOfNewline(int from) {
+            for (int i = from; i < chunk.limit(); i++) {
+                if (chunk.get(i) == NEWLINE) {
+                    return i;
+                }
+            }
+            return chunk.limit();
+        }
+
+        private String decode(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = chunk.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private class FileGrep extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path file;
+
+        FileGrep(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                grepFile(file);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Searches all text files in a directory, and all subdirectories, in parallel.
+     */
+    private class DirGrep extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+
+        DirGrep(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> entryGreps = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        entryGreps.add(new DirGrep(entry));
+                    } else if (entry.toString().endsWith(FileHandler.TEXT_FILE_EXTENSION)
+                               && Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        entryGreps.add(new FileGrep(entry));
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            invokeAll(entryGreps);
+        }
+    }
+}
@@ -24,18 +24,55 @@
 
 package se.kth.id1212.streams.startup;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import se.kth.id1212.streams.controller.ControllerConfig;
+import se.kth.id1212.streams.view.BatchInterpreter;
 import se.kth.id1212.streams.view.NonBlockingInterpreter;
 
 /**
  * Starts the file handling application
  */
 public class Main {
+    private static final String STDIN_SCRIPT = "-";
+
     /**
-     * The main method of the file handling application. There are no command line arguments.
+     * The main method of the file handling application. If a script is specified, the commands in
+     * that script are executed by a {@link BatchInterpreter}, and the application exits when they
+     * are completed. Otherwise, commands are read interactively from <code>System.in</code>.
      * 
-     * @param args 
+     * @param args Settings on the form <code>--io.threads=8</code>, see {@link ControllerConfig}
+     *             for available settings, and optionally the name of a script file. A script
+     *             named <code>-</code> is read from <code>System.in</code>.
      */
     public static void main(String[] args) {
-       new NonBlockingInterpreter().start(); 
+        ControllerConfig config = ControllerConfig.fromCommandLine(args);
+        String script = scriptOf(args);
+        if (script == null) {
+            new NonBlockingInterpreter(config).start();
+            return;
+        }
+        try (BufferedReader in = STDIN_SCRIPT.equals(script)
+                                 ? new BufferedReader(new InputStreamReader(System.in))
+                                 : Files.newBufferedReader(Paths.get(script))) {
+            new BatchInterpreter(config).run(in);
+        } catch (IOException ioe) {
+            System.err.println("Could not read script " + script + ": " + ioe.getMessage());
+        }
+    }
+
+    private static String scriptOf(String[] args) {
+        if (args == null) {
+            return null;
+        }
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                return arg;
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,386 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.view;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import se.kth.id1212.streams.controller.Controller;
+import se.kth.id1212.streams.controller.ControllerConfig;
+
+/**
+ * Executes the commands in a script, without prompting. Commands are submitted as soon as they are
+ * read, without waiting for earlier commands to complete, but a command is not started until all
+ * earlier commands on the same file or directory, or on a file or directory above or below it,
+ * are completed. Commands on unrelated paths are executed in parallel. The number of commands
+ * that are in progress at the same time is limited by {@link ControllerConfig#BATCH_WINDOW}.
+ * <p>
+ * Output is printed in the same order as the commands appear in the script, the output of one
+ * command is never mixed with the output of another. The output of the first command in the
+ * script whose output is not yet printed is printed as it is produced. Output of later commands
+ * is buffered until all earlier commands are printed, at most {@link #MAX_BUFFERED_CHARS} chars
+ * of each command in memory and the rest in a temporary file. Empty lines, and lines starting
+ * with <code>#</code>, are ignored. A summary with the number of executed commands and the
+ * throughput is printed last.
+ */
+public class BatchInterpreter {
+    /**
+     * The maximum number of chars of a command's output that are kept in memory while the
+     * output waits for earlier commands to be printed.
+     */
+    static final int MAX_BUFFERED_CHARS = 1024 * 1024;
+    private static final String COMMENT_START = "#";
+    private static final String NEWLINE = System.lineSeparator();
+    private static final Path WORKING_DIR = Paths.get("").toAbsolutePath();
+    private final OutputManager outMgr;
+    private final Map<Path, CompletableFuture<Void>> lastUseOfPath = new ConcurrentHashMap<>();
+    private final Queue<PendingCmd> unprinted = new ArrayDeque<>();
+    private final int windowSize;
+    private final Semaphore window;
+    private final Controller contr;
+    private int noOfCmds = 0;
+    private int noOfFailures = 0;
+
+    /**
+     * Creates a new instance, which executes commands with the specified settings.
+     *
+     * @param config Settings for command execution.
+     */
+    public BatchInterpreter(ControllerConfig config) {
+        outMgr = new OutputManager(config);
+        windowSize = config.getBatchWindow();
+        window = new Semaphore(windowSize);
+        contr = new Controller(config);
+    }
+
+    /**
+     * Executes all commands in the specified script, and returns when all of them are completed
+     * and their output is printed. Reading stops at the end of the script or at a
+     * <code>QUIT</code> command.
+     *
+     * @param script The commands to execute, one on each line.
+     * @throws IOException If the script could not be read. Commands read before the failure are
+     *                     completed before the exception is thrown.
+     */
+    public void run(BufferedReader script) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String line;
+            while ((line = script.readLine()) != null) {
+                if (isIgnored(line)) {
+                    continue;
+                }
+                CmdLine cmdLine = new CmdLine(line);
+                if (cmdLine.getCmd() == Command.QUIT) {
+                    break;
+                }
+                window.acquireUninterruptibly();
+                submit(line, cmdLine);
+            }
+        } finally {
+            window.acquireUninterruptibly(windowSize);
+            window.release(windowSize);
+        }
+        printSummary(System.nanoTime() - start);
+        outMgr.flush();
+    }
+
+    private boolean isIgnored(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() || trimmed.startsWith(COMMENT_START);
+    }
+
+    private void submit(String line, CmdLine cmdLine) {
+        PendingCmd cmd = new PendingCmd(line);
+        List<Path> paths;
+        try {
+            paths = pathsOf(cmdLine);
+            cmd.result = afterEarlierUses(paths).thenCompose(ignored -> execute(cmdLine, cmd));
+        } catch (RuntimeException malformed) {
+            paths = Collections.emptyList();
+            cmd.result = new CompletableFuture<>();
+            cmd.result.completeExceptionally(malformed);
+        }
+        CompletableFuture<Void> finished = cmd.result.handle((summary, failure) -> null);
+        for (Path path : paths) {
+            lastUseOfPath.put(path, finished);
+            finished.thenRun(() -> lastUseOfPath.remove(path, finished));
+        }
+        synchronized (unprinted) {
+            unprinted.add(cmd);
+        }
+        printCompleted();
+        cmd.result.whenComplete((summary, failure) -> printCompleted());
+    }
+
+    private CompletableFuture<Void> afterEarlierUses(List<Path> paths) {
+        List<CompletableFuture<Void>> earlierUses = new ArrayList<>();
+        for (Map.Entry<Path, CompletableFuture<Void>> use : lastUseOfPath.entrySet()) {
+            for (Path path : paths) {
+                if (path.startsWith(use.getKey()) || use.getKey().startsWith(path)) {
+                    earlierUses.add(use.getValue());
+                    break;
+                }
+            }
+        }
+        return CompletableFuture.allOf(earlierUses.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * @return The files and directories read or changed by the specified command. STATS reports
+     *         on everything, and therefore waits for all earlier commands below the working
+     *         directory.
+     */
+    private List<Path> pathsOf(CmdLine cmdLine) {
+        switch (cmdLine.getCmd()) {
+            case COPY:
+            case MOVE:
+                List<Path> paths = new ArrayList<>();
+                paths.add(absolute(cmdLine.getParameter(0)));
+                paths.add(absolute(cmdLine.getParameter(1)));
+                return paths;
+            case LIST:
+                return Collections.singletonList(absolute(new ListParameters(cmdLine).getPath()));
+            case STATS:
+                return Collections.singletonList(WORKING_DIR);
+            case SLOWCMD:
+            case JOBS:
+            case CANCEL:
+            case INVALID:
+                return Collections.emptyList();
+            default:
+                return Collections.singletonList(absolute(cmdLine.getParameter(0)));
+        }
+    }
+
+    private Path absolute(String path) {
+        if (path == null) {
+            return WORKING_DIR;
+        }
+        return WORKING_DIR.resolve(path).normalize();
+    }
+
+    /**
+     * Starts the specified command. Output is appended to the command's output, the returned
+     * future completes with a line that is printed after that output, or with <code>null</code>
+     * if there is no such line.
+     */
+    private CompletableFuture<String> execute(CmdLine cmdLine, PendingCmd cmd) {
+        switch (cmdLine.getCmd()) {
+            case CREATEDIR:
+                return contr.createDir(cmdLine.getParameter(0)).thenApply(done -> null);
+            case LIST:
+                ListParameters params = new ListParameters(cmdLine);
+                return contr.listDir(params.getPath(), params.getGlob(), params.getPageSize(),
+                                     params.getPageToken(), params.isWithAttributes(),
+                                     cmd::append)
+                        .thenApply(nextPage -> nextPage == null ? null : "Next page: " + nextPage);
+            case WRITE:
+                return contr.write(cmdLine.getParameter(0), cmdLine.getParameter(1))
+                        .thenApply(done -> null);
+            case READ:
+                if (cmdLine.getParameter(2) != null) {
+                    return contr.readLines(cmdLine.getParameter(0),
+                                           Long.parseLong(cmdLine.getParameter(1)),
+                                           Long.parseLong(cmdLine.getParameter(2)), cmd::append)
+                            .thenApply(done -> null);
+                }
+                return contr.read(cmdLine.getParameter(0), cmd::append).thenApply(done -> null);
+            case TAIL:
+                Long offset = cmdLine.getParameter(1) == null
+                              ? null : Long.parseLong(cmdLine.getParameter(1));
+                return contr.tail(cmdLine.getParameter(0), offset, cmd::append)
+                        .thenApply(nextOffset -> "Next offset: " + nextOffset);
+            case COPY:
+                return contr.copy(cmdLine.getParameter(0), cmdLine.getParameter(1))
+                        .thenApply(Object::toString);
+            case DELETE:
+                return contr.delete(cmdLine.getParameter(0), progress -> {})
+                        .thenApply(Object::toString);
+            case MOVE:
+                return contr.move(cmdLine.getParameter(0), cmdLine.getParameter(1))
+                        .thenApply(done -> null);
+            case DU:
+                return contr.diskUsage(cmdLine.getParameter(0)).thenApply(Object::toString);
+            case GREP:
+                return contr.grep(cmdLine.getParameter(0), cmdLine.getParameter(1), cmd::append)
+                        .thenApply(noOfMatches -> "Matching lines: " + noOfMatches);
+            case STATS:
+                return CompletableFuture.completedFuture(contr.getStats());
+            case SLOWCMD:
+                return contr.longRunningTask().thenApply(done -> null);
+            case JOBS:
+                StringBuilder jobs = new StringBuilder();
+                contr.getJobs().forEach(job -> jobs.append(NEWLINE).append(job));
+                return CompletableFuture.completedFuture(jobs.length() == 0
+                                                         ? null : jobs.substring(NEWLINE.length()));
+            case CANCEL:
+                if (!contr.cancel(Integer.parseInt(cmdLine.getParameter(0)))) {
+                    return CompletableFuture.completedFuture(
+                            "No running job " + cmdLine.getParameter(0));
+                }
+                return CompletableFuture.completedFuture(null);
+            case INVALID:
+                throw new IllegalArgumentException("Invalid command");
+            default:
+                throw new UnsupportedOperationException(cmdLine.getCmd()
+                                                        + " is not supported in a script");
+        }
+    }
+
+    /**
+     * Prints the output of all completed commands that are not preceded by an uncompleted
+     * command in the script, and lets the first uncompleted command print its output directly.
+     */
+    private void printCompleted() {
+        synchronized (unprinted) {
+            while (!unprinted.isEmpty()) {
+                PendingCmd first = unprinted.peek();
+                first.startPrinting();
+                if (!first.result.isDone()) {
+                    break;
+                }
+                unprinted.poll().print();
+                window.release();
+            }
+        }
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double elapsedSecs = elapsedNanos / 1e9;
+        outMgr.println(String.format("Executed %d commands, %d failed, in %d ms (%.1f commands/s)",
+                                     noOfCmds, noOfFailures, elapsedNanos / 1000000,
+                                     elapsedSecs > 0 ? noOfCmds / elapsedSecs : 0));
+    }
+
+    private class PendingCmd {
+        private final String line;
+        private final StringBuilder buffered = new StringBuilder();
+        private Path overflowFile;
+        private Writer overflow;
+        private boolean printing;
+        private boolean hasOutput;
+        private CompletableFuture<String> result;
+
+        PendingCmd(String line) {
+            this.line = line;
+        }
+
+        synchronized void append(Object chunk) {
+            String output = chunk.toString();
+            if (output.isEmpty()) {
+                return;
+            }
+            hasOutput = true;
+            if (printing) {
+                outMgr.print(output);
+            } else if (overflow == null
+                       && buffered.length() + output.length() <= MAX_BUFFERED_CHARS) {
+                buffered.append(output);
+            } else {
+                try {
+                    if (overflow == null) {
+                        overflowFile = Files.createTempFile("streams-batch", ".out");
+                        overflow = Files.newBufferedWriter(overflowFile);
+                    }
+                    overflow.write(output);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        }
+
+        /**
+         * Prints the buffered output, and lets all further output be printed directly. Called
+         * when all earlier commands are printed, while holding the lock of the unprinted
+         * commands.
+         */
+        synchronized void startPrinting() {
+            if (printing) {
+                return;
+            }
+            printing = true;
+            if (buffered.length() > 0) {
+                outMgr.print(buffered.toString());
+                buffered.setLength(0);
+                buffered.trimToSize();
+            }
+            if (overflow != null) {
+                printOverflow();
+            }
+        }
+
+        private void printOverflow() {
+            try {
+                overflow.close();
+                try (Reader fromFile = Files.newBufferedReader(overflowFile)) {
+                    char[] buf = new char[MAX_BUFFERED_CHARS / 16];
+                    for (int count = fromFile.read(buf); count != -1; count = fromFile.read(buf)) {
+                        outMgr.print(new String(buf, 0, count));
+                    }
+                }
+                Files.delete(overflowFile);
+            } catch (IOException ioe) {
+                outMgr.println("Could not print output of: " + line);
+            }
+        }
+
+        /**
+         * Called only when the command is completed and all its output is printed, while
+         * holding the lock of the unprinted commands.
+         */
+        synchronized void print() {
+            noOfCmds++;
+            StringBuilder cmdOutput = new StringBuilder();
+            if (hasOutput) {
+                cmdOutput.append(NEWLINE);
+            }
+            try {
+                String summary = result.join();
+                if (summary != null) {
+                    cmdOutput.append(summary).append(NEWLINE);
+                }
+            } catch (CompletionException failure) {
+                noOfFailures++;
+                cmdOutput.append("Operation failed: ").append(line).append(NEWLINE);
+            }
+            outMgr.print(cmdOutput.toString());
+        }
+    }
+}
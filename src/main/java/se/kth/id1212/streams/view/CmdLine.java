@@ -24,14 +24,17 @@
 package se.kth.id1212.streams.view;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * One line of user input, which should be a command and parameters associated with that command (if
- * any).
+ * any). The line is parsed in one pass, character by character, without regular expressions.
  */
 class CmdLine {
-    private static final String PARAM_DELIMETER = " ";
+    private static final char QUOTE = '"';
+    private static final char ESCAPE = '\\';
+    private static final Command[][] COMMANDS_BY_FIRST_LETTER = createCommandTable();
     private String[] params;
     private Command cmd;
 
@@ -41,8 +44,19 @@ class CmdLine {
      * @param enteredLine A line that was entered by the user.
      */
     CmdLine(String enteredLine) {
-        parseCmd(enteredLine);
-        extractParams(enteredLine);
+        if (enteredLine == null) {
+            cmd = Command.INVALID;
+            return;
+        }
+        int cmdStart = skipWhitespace(enteredLine, 0);
+        int cmdEnd = cmdStart;
+        while (cmdEnd < enteredLine.length() && !isWhitespace(enteredLine.charAt(cmdEnd))) {
+            cmdEnd++;
+        }
+        cmd = lookUpCmd(enteredLine, cmdStart, cmdEnd);
+        if (cmd != Command.INVALID) {
+            extractParams(enteredLine, cmdEnd);
+        }
     }
 
     /**
@@ -54,8 +68,10 @@ class CmdLine {
 
     /**
      * Returns the parameter with the specified index. The first parameter has index zero.
-     * Parameters are separated by a blank character (" "). A Character sequence enclosed in quotes
-     * form one single parameter, even if it contains blanks.
+     * Parameters are separated by one or more blanks or tabs. A character sequence enclosed in
+     * quotes forms one single parameter, even if it contains blanks, which are kept as they are. A
+     * backslash before a quote, a blank, a tab or another backslash makes that character part of
+     * the parameter. All other backslashes are part of the parameter.
      *
      * @param index The index of the searched parameter.
      * @return The parameter with the specified index, or <code>null</code> if there is no parameter
@@ -71,76 +87,84 @@ class CmdLine {
         return params[index];
     }
 
-    private String removeExtraSpaces(String source) {
-        if (source == null) {
-            return source;
+    /**
+     * Commands are grouped by the first letter of their name, so a command is found by comparing
+     * the entered name with at most a few names, without creating any strings.
+     */
+    private static Command[][] createCommandTable() {
+        Command[][] table = new Command['Z' - 'A' + 1][0];
+        for (Command command : Command.values()) {
+            if (command == Command.INVALID) {
+                continue;
+            }
+            int letter = command.name().charAt(0) - 'A';
+            Command[] sameLetter = Arrays.copyOf(table[letter], table[letter].length + 1);
+            sameLetter[sameLetter.length - 1] = command;
+            table[letter] = sameLetter;
         }
-        String oneOrMoreOccurences = "+";
-        return source.trim().replaceAll(PARAM_DELIMETER + oneOrMoreOccurences, PARAM_DELIMETER);
+        return table;
     }
 
-    private void parseCmd(String enteredLine) {
-        int cmdNameIndex = 0;
-        try {
-            String[] enteredTokens = removeExtraSpaces(enteredLine).split(PARAM_DELIMETER);
-            cmd = Command.valueOf(enteredTokens[cmdNameIndex].toUpperCase());
-        } catch (Throwable failedToReadCmd) {
-            cmd = Command.INVALID;
+    private Command lookUpCmd(String line, int start, int end) {
+        if (start == end) {
+            return Command.INVALID;
         }
-    }
-
-    private void extractParams(String enteredLine) {
-        if (enteredLine == null) {
-            return;
+        int letter = Character.toUpperCase(line.charAt(start)) - 'A';
+        if (letter < 0 || letter >= COMMANDS_BY_FIRST_LETTER.length) {
+            return Command.INVALID;
         }
-        if (cmd.equals(Command.INVALID)) {
-            return;
+        for (Command candidate : COMMANDS_BY_FIRST_LETTER[letter]) {
+            String name = candidate.name();
+            if (name.length() == end - start && line.regionMatches(true, start, name, 0,
+                                                                   name.length())) {
+                return candidate;
+            }
         }
-        String readyForParsing = removeExtraSpaces(removeCmd(enteredLine));
-        List<String> params = new ArrayList<>();
-        int start = 0;
+        return Command.INVALID;
+    }
+
+    private void extractParams(String line, int start) {
+        List<String> found = new ArrayList<>();
+        StringBuilder param = new StringBuilder();
+        boolean inParam = false;
         boolean inQuotes = false;
-        for (int index = 0; index < readyForParsing.length(); index++) {
-            if (currentCharIsQuote(readyForParsing, index)) {
+        for (int index = start; index < line.length(); index++) {
+            char c = line.charAt(index);
+            if (c == ESCAPE && index + 1 < line.length() && isEscapable(line.charAt(index + 1))) {
+                param.append(line.charAt(++index));
+                inParam = true;
+            } else if (c == QUOTE) {
                 inQuotes = !inQuotes;
-            }
-            if (reachedEndOfString(readyForParsing, index)) {
-                addParam(params, readyForParsing, start, index);
-            } else if (timeToSplit(readyForParsing, index, inQuotes)) {
-                addParam(params, readyForParsing, start, index);
-                start = index + 1;
+                inParam = true;
+            } else if (isWhitespace(c) && !inQuotes) {
+                if (inParam) {
+                    found.add(param.toString());
+                    param.setLength(0);
+                    inParam = false;
+                }
+            } else {
+                param.append(c);
+                inParam = true;
             }
         }
-        this.params = params.toArray(new String[0]);
-    }
-
-    private void addParam(List<String> params, String paramSource, int start, int index) {
-        if (reachedEndOfString(paramSource, index)) {
-            params.add(removeQuotes(paramSource.substring(start)));
-        } else {
-            params.add(removeQuotes(paramSource.substring(start, index)));
+        if (inParam) {
+            found.add(param.toString());
         }
+        params = found.toArray(new String[found.size()]);
     }
 
-    private boolean currentCharIsQuote(String readyForParsing, int index) {
-        return readyForParsing.charAt(index) == '\"';
-    }
-
-    private String removeCmd(String enteredLine) {
-        int indexAfterCmd = enteredLine.toUpperCase().indexOf(cmd.name()) + cmd.name().length();
-        String withoutCmd = enteredLine.substring(indexAfterCmd, enteredLine.length());
-        return withoutCmd.trim();
-    }
-
-    private boolean timeToSplit(String source, int index, boolean dontSplit) {
-        return source.charAt(index) == PARAM_DELIMETER.charAt(0) && !dontSplit;
+    private static int skipWhitespace(String line, int index) {
+        while (index < line.length() && isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
     }
 
-    private boolean reachedEndOfString(String source, int index) {
-        return index == (source.length() - 1);
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
     }
 
-    private String removeQuotes(String source) {
-        return source.replaceAll("\"", "");
+    private static boolean isEscapable(char c) {
+        return c == QUOTE || c == ESCAPE || isWhitespace(c);
     }
 }
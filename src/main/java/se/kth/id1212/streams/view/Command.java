@@ -38,30 +38,95 @@ public enum Command {
     WRITE,
     
     /**
-     * Print the content of a file.
+     * Print the content of a file. If two line numbers are specified after the file name, only
+     * the lines from the first (inclusive) to the second (exclusive) are printed. The first line
+     * in a file has number zero.
      */
     READ,
     
     /**
-     * Delete a file or directory.
+     * Print the content appended to a file since a given offset, or since the previous TAIL of
+     * the same file.
+     */
+    TAIL,
+
+    /**
+     * Keep printing content appended to a file, as it arrives.
+     */
+    FOLLOW,
+
+    /**
+     * Stop printing content appended to a file.
+     */
+    UNFOLLOW,
+
+    /**
+     * Keep printing the files that are created, modified or deleted in a directory, or in any
+     * directory below it.
+     */
+    WATCH,
+
+    /**
+     * Stop printing changes in a directory.
+     */
+    UNWATCH,
+
+    /**
+     * Delete a file or directory, including everything in it, and print the number of deleted
+     * files and directories.
      */
     DELETE,
     
     /**
-     * List the files in a directory.
+     * List the files in a directory. The directory name can be followed by a glob pattern that
+     * the listed names must match, the maximum number of entries to list, and the token printed
+     * by a previous LIST to continue from. If any parameter is <code>-l</code>, each entry's size
+     * and last modified time are also listed.
      */
     LIST,
     
     /**
-     * Copy a file or directory.
+     * Print the total size of the files in a directory tree, the number of files with each
+     * extension, and the largest files.
+     */
+    DU,
+
+    /**
+     * Print the lines in a text file, or in all text files in a directory tree, that contain a
+     * pattern. The pattern is a literal string or a regular expression. Each line is printed with
+     * the name of its file and its line number, the first line in a file has number zero.
+     */
+    GREP,
+
+    /**
+     * Copy a file or directory, and print the number of copied files and bytes, and the
+     * throughput.
      */
     COPY,
     
     /**
-     * Move (rename) a file or directory.
+     * Move (rename) a file or directory. The move is atomic if the new path is on the same file
+     * system.
      */
     MOVE,
     
+    /**
+     * Print the number of performed operations, their failures and latencies, the number of
+     * characters read and written per file format, and the state of the I/O queue.
+     */
+    STATS,
+
+    /**
+     * Print the commands that are not completed, with their job ids, running times and the number
+     * of characters they have printed so far.
+     */
+    JOBS,
+
+    /**
+     * Cancel the command with the specified job id.
+     */
+    CANCEL,
+
     /**
      * Leave the file handler.
      */
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parameters of a <code>LIST</code> command, see {@link Command#LIST}.
+ */
+class ListParameters {
+    private static final String LONG_LISTING_FLAG = "-l";
+    private final String path;
+    private final String glob;
+    private final int pageSize;
+    private final String pageToken;
+    private final boolean withAttributes;
+
+    /**
+     * Reads the parameters of the specified command line.
+     *
+     * @param cmdLine A <code>LIST</code> command.
+     * @throws NumberFormatException If the page size is not a number.
+     */
+    ListParameters(CmdLine cmdLine) {
+        List<String> params = new ArrayList<>();
+        boolean longListing = false;
+        for (int i = 0; cmdLine.getParameter(i) != null; i++) {
+            if (LONG_LISTING_FLAG.equals(cmdLine.getParameter(i))) {
+                longListing = true;
+            } else {
+                params.add(cmdLine.getParameter(i));
+            }
+        }
+        path = params.size() > 0 ? params.get(0) : null;
+        glob = params.size() > 1 ? params.get(1) : null;
+        pageSize = params.size() > 2 ? Integer.parseInt(params.get(2)) : 0;
+        pageToken = params.size() > 3 ? params.get(3) : null;
+        withAttributes = longListing;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getGlob() {
+        return glob;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    String getPageToken() {
+        return pageToken;
+    }
+
+    boolean isWithAttributes() {
+        return withAttributes;
+    }
+}
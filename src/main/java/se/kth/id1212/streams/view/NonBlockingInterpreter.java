@@ -24,8 +24,11 @@
 package se.kth.id1212.streams.view;
 
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 import se.kth.id1212.streams.controller.Controller;
+import se.kth.id1212.streams.controller.ControllerConfig;
+import se.kth.id1212.streams.controller.Job;
 
 /**
  * Reads and interprets user commands. The command interpreter will run in a separate thread, which
@@ -35,11 +38,31 @@ import se.kth.id1212.streams.controller.Controller;
  */
 public class NonBlockingInterpreter implements Runnable {
     private static final String PROMPT = "> ";
+    private static final String NEWLINE = System.lineSeparator();
     private final Scanner console = new Scanner(System.in);
-    private final OutputManager outMgr = new OutputManager();
+    private final OutputManager outMgr;
+    private final ControllerConfig config;
     private boolean receivingCmds = false;
     private Controller contr;
 
+    /**
+     * Creates a new instance, which executes commands with settings read from the system
+     * properties.
+     */
+    public NonBlockingInterpreter() {
+        this(ControllerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Creates a new instance, which executes commands with the specified settings.
+     *
+     * @param config Settings for command execution.
+     */
+    public NonBlockingInterpreter(ControllerConfig config) {
+        this.config = config;
+        outMgr = new OutputManager(config);
+    }
+
     /**
      * Starts the interpreter. The interpreter will be waiting for user input when this method
      * returns. Calling <code>start</code> on an interpreter that is already started has no effect.
@@ -49,7 +72,7 @@ public class NonBlockingInterpreter implements Runnable {
             return;
         }
         receivingCmds = true;
-        contr = new Controller();
+        contr = new Controller(config);
         new Thread(this).start();
     }
 
@@ -64,18 +87,93 @@ public class NonBlockingInterpreter implements Runnable {
                 switch (cmdLine.getCmd()) {
                     case QUIT:
                         receivingCmds = false;
+                        outMgr.flush();
                         break;
                     case CREATEDIR:
-                        contr.createDir(cmdLine.getParameter(0));
+                        ResultHandler createDirHandler = new ResultHandler();
+                        contr.createDir(cmdLine.getParameter(0))
+                                .whenComplete(createDirHandler::failed);
                         break;
                     case LIST:
-                        contr.listDir(cmdLine.getParameter(0), new ResultHandler());
+                        list(cmdLine);
                         break;
                     case WRITE:
-                        contr.write(cmdLine.getParameter(0), cmdLine.getParameter(1));
+                        ResultHandler writeHandler = new ResultHandler();
+                        contr.write(cmdLine.getParameter(0), cmdLine.getParameter(1))
+                                .whenComplete(writeHandler::failed);
                         break;
                     case READ:
-                        contr.read(cmdLine.getParameter(0), new ResultHandler());
+                        ChunkedResultHandler chunkHandler = new ChunkedResultHandler();
+                        if (cmdLine.getParameter(2) != null) {
+                            contr.readLines(cmdLine.getParameter(0),
+                                            Long.parseLong(cmdLine.getParameter(1)),
+                                            Long.parseLong(cmdLine.getParameter(2)), chunkHandler)
+                                    .whenComplete(chunkHandler::done);
+                        } else {
+                            contr.read(cmdLine.getParameter(0), chunkHandler)
+                                    .whenComplete(chunkHandler::done);
+                        }
+                        break;
+                    case TAIL:
+                        ChunkedResultHandler tailHandler = new ChunkedResultHandler();
+                        contr.tail(cmdLine.getParameter(0), parseOffset(cmdLine.getParameter(1)),
+                                   tailHandler)
+                                .thenApply(nextOffset -> "Next offset: " + nextOffset)
+                                .whenComplete(tailHandler::done);
+                        break;
+                    case FOLLOW:
+                        contr.follow(cmdLine.getParameter(0), new ResultHandler());
+                        break;
+                    case UNFOLLOW:
+                        if (!contr.unfollow(cmdLine.getParameter(0))) {
+                            outMgr.println("Not following " + cmdLine.getParameter(0));
+                        }
+                        break;
+                    case COPY:
+                        ResultHandler copyHandler = new ResultHandler();
+                        contr.copy(cmdLine.getParameter(0), cmdLine.getParameter(1))
+                                .whenComplete(copyHandler::done);
+                        break;
+                    case DELETE:
+                        ResultHandler deleteHandler = new ResultHandler();
+                        contr.delete(cmdLine.getParameter(0), deleteHandler)
+                                .whenComplete(deleteHandler::done);
+                        break;
+                    case MOVE:
+                        ResultHandler moveHandler = new ResultHandler();
+                        String moved = "Moved " + cmdLine.getParameter(0) + " to "
+                                       + cmdLine.getParameter(1);
+                        contr.move(cmdLine.getParameter(0), cmdLine.getParameter(1))
+                                .thenApply(ignored -> moved).whenComplete(moveHandler::done);
+                        break;
+                    case DU:
+                        ResultHandler duHandler = new ResultHandler();
+                        contr.diskUsage(cmdLine.getParameter(0)).whenComplete(duHandler::done);
+                        break;
+                    case GREP:
+                        ChunkedResultHandler grepHandler = new ChunkedResultHandler();
+                        contr.grep(cmdLine.getParameter(0), cmdLine.getParameter(1), grepHandler)
+                                .thenApply(noOfMatches -> "Matching lines: " + noOfMatches)
+                                .whenComplete(grepHandler::done);
+                        break;
+                    case WATCH:
+                        contr.watch(cmdLine.getParameter(0), new ResultHandler());
+                        break;
+                    case UNWATCH:
+                        if (!contr.unwatch(cmdLine.getParameter(0))) {
+                            outMgr.println("Not watching " + cmdLine.getParameter(0));
+                        }
+                        break;
+                    case STATS:
+                        outMgr.println(contr.getStats());
+                        break;
+                    case JOBS:
+                        outMgr.print(jobList());
+                        break;
+                    case CANCEL:
+                        if (!contr.cancel(Integer.parseInt(cmdLine.getParameter(0)))) {
+                            outMgr.println("No running job " + cmdLine.getParameter(0));
+                        }
                         break;
                     case SLOWCMD:
                         contr.longRunningTask();
@@ -89,6 +187,30 @@ public class NonBlockingInterpreter implements Runnable {
         }
     }
 
+    private void list(CmdLine cmdLine) {
+        ListParameters params = new ListParameters(cmdLine);
+        ChunkedResultHandler listHandler = new ChunkedResultHandler();
+        contr.listDir(params.getPath(), params.getGlob(), params.getPageSize(),
+                      params.getPageToken(), params.isWithAttributes(), listHandler)
+                .thenApply(nextPage -> nextPage == null ? null : "Next page: " + nextPage)
+                .whenComplete(listHandler::done);
+    }
+
+    private String jobList() {
+        StringBuilder jobs = new StringBuilder();
+        for (Job<?> job : contr.getJobs()) {
+            jobs.append(job).append(NEWLINE);
+        }
+        return jobs.toString();
+    }
+
+    private Long parseOffset(String offset) {
+        if (offset == null) {
+            return null;
+        }
+        return Long.parseLong(offset);
+    }
+
     private String readNextLine() {
         outMgr.print(PROMPT);
         return console.nextLine();
@@ -97,8 +219,66 @@ public class NonBlockingInterpreter implements Runnable {
     private class ResultHandler implements Consumer {
         @Override
         public void accept(Object msg) {
-            outMgr.println((String)msg);
-            outMgr.print(PROMPT);
+            outMgr.print((String)msg + NEWLINE + PROMPT);
+        }
+
+        void done(Object result, Throwable failure) {
+            accept(failure == null ? result.toString() : "Operation failed");
+        }
+
+        /**
+         * Prints nothing if the operation succeeded, and the message of the exception that failed
+         * it otherwise.
+         */
+        void failed(Object ignoredResult, Throwable failure) {
+            if (failure == null) {
+                return;
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                              ? failure.getCause() : failure;
+            accept(cause.getMessage() == null ? "Operation failed" : cause.getMessage());
+        }
+    }
+
+    /**
+     * Prints all chunks, and the summary, in one section, so output of other commands is never
+     * mixed into them. The section is opened when the first chunk arrives.
+     */
+    private class ChunkedResultHandler implements Consumer {
+        private OutputManager.Section section;
+
+        @Override
+        public void accept(Object chunk) {
+            section().print((String)chunk);
+        }
+
+        void done() {
+            OutputManager.Section finished = section();
+            finished.print(NEWLINE + PROMPT);
+            finished.close();
+        }
+
+        void done(Object summary, Throwable failure) {
+            if (failure != null) {
+                done("Operation failed");
+            } else if (summary == null) {
+                done();
+            } else {
+                done(summary.toString());
+            }
+        }
+
+        void done(String summary) {
+            OutputManager.Section finished = section();
+            finished.print(NEWLINE + summary + NEWLINE + PROMPT);
+            finished.close();
+        }
+
+        private synchronized OutputManager.Section section() {
+            if (section == null) {
+                section = outMgr.openSection();
+            }
+            return section;
         }
     }
 }
@@ -23,17 +23,105 @@
  */
 package se.kth.id1212.streams.view;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import se.kth.id1212.streams.controller.ControllerConfig;
+
 /**
- * This class provides a thread safe output, all methods are synchronized. 
+ * This class provides a thread safe output. Each call to <code>print</code> or
+ * <code>println</code> is printed as a whole, output printed by other threads at the same time
+ * is never mixed into it. Output that is printed piece by piece, for example the chunks of a
+ * large file, is kept together by printing it in a {@link Section}.
+ * <p>
+ * By default, output is printed directly by the calling thread. If
+ * {@link ControllerConfig#OUTPUT_ASYNC} is set, output is instead placed in a bounded queue, and
+ * printed by a separate writer thread. The writer thread prints all queued output at once, through
+ * a large buffer, and flushes as specified by {@link ControllerConfig#OUTPUT_FLUSH_MILLIS}. A
+ * printing thread is blocked only if the queue is full.
  */
 class OutputManager {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String NEWLINE = System.lineSeparator();
+    private final BlockingQueue<Object> queue;
+    private final long flushIntervalNanos;
+    private final Queue<Section> waitingSections = new ArrayDeque<>();
+    private Section printingSection;
+
+    /**
+     * Creates a new instance, which prints directly to <code>System.out</code>.
+     */
+    OutputManager() {
+        queue = null;
+        flushIntervalNanos = 0;
+    }
+
+    /**
+     * Creates a new instance with the specified settings. If output is asynchronous, it is printed
+     * to the <code>System.out</code> that is set when this instance is created.
+     *
+     * @param config Output settings.
+     */
+    OutputManager(ControllerConfig config) {
+        if (!config.isOutputAsync()) {
+            queue = null;
+            flushIntervalNanos = 0;
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(config.getOutputQueueSize());
+        flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getOutputFlushMillis());
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+        Thread writer = new Thread(() -> writeQueued(out), "output-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
     /**
      * Prints the specified output to <code>System.out</code>,
      * 
      * @param output The output to print. 
      */
-    synchronized void print(String output) {
-        System.out.print(output);
+    void print(String output) {
+        synchronized (waitingSections) {
+            if (printingSection == null) {
+                printOrEnqueue(output);
+            } else {
+                Section waiting = new Section();
+                waiting.buffered.append(output);
+                waiting.closed = true;
+                waitingSections.add(waiting);
+            }
+        }
+    }
+
+    /**
+     * Opens a new section. Everything printed in a section is printed together, from the first
+     * call to {@link Section#print(java.lang.String)} until {@link Section#close()}, without any
+     * other output in between. Only one section at a time is printed, output of other sections,
+     * and output printed outside sections, is buffered until all sections opened before it are
+     * closed.
+     *
+     * @return The new section.
+     */
+    Section openSection() {
+        synchronized (waitingSections) {
+            Section section = new Section();
+            if (printingSection == null) {
+                printingSection = section;
+            } else {
+                waitingSections.add(section);
+            }
+            return section;
+        }
     }
 
     /**
@@ -41,7 +129,169 @@ class OutputManager {
      * 
      * @param output The output to print. 
      */
-    synchronized void println(String output) {
-        System.out.println(output);
+    void println(String output) {
+        print(output + NEWLINE);
+    }
+
+    /**
+     * Returns when all output printed before this method was called has been written and flushed.
+     * Returns immediately if output is not asynchronous.
+     */
+    void flush() {
+        if (queue == null) {
+            return;
+        }
+        CountDownLatch flushed = new CountDownLatch(1);
+        enqueue(flushed);
+        try {
+            flushed.await();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the waiting sections.
+     */
+    private void printOrEnqueue(String output) {
+        if (queue == null) {
+            printNow(output);
+        } else {
+            enqueue(output);
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the waiting sections, when the printing section is
+     * closed.
+     */
+    private void printWaitingSections() {
+        printingSection = null;
+        while (printingSection == null && !waitingSections.isEmpty()) {
+            Section next = waitingSections.poll();
+            if (next.buffered.length() > 0) {
+                printOrEnqueue(next.buffered.toString());
+                next.buffered.setLength(0);
+            }
+            if (!next.closed) {
+                printingSection = next;
+            }
+        }
+    }
+
+    private synchronized void printNow(String output) {
+        System.out.print(output);
+    }
+
+    private void enqueue(Object entry) {
+        try {
+            queue.put(entry);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run by the writer thread. Writes everything that is queued, then flushes if the queue is
+     * empty and there is no flush interval, or if the interval has passed since the last flush.
+     * Output that is written but not flushed is flushed at the latest when the interval has
+     * passed, even if nothing more is queued.
+     */
+    private void writeQueued(Writer out) {
+        List<Object> batch = new ArrayList<>();
+        long lastFlush = System.nanoTime();
+        boolean unflushed = false;
+        try {
+            while (true) {
+                Object first;
+                if (unflushed) {
+                    long untilFlush = flushIntervalNanos - (System.nanoTime() - lastFlush);
+                    first = queue.poll(untilFlush, TimeUnit.NANOSECONDS);
+                } else {
+                    first = queue.take();
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    unflushed = write(batch, out);
+                    batch.clear();
+                }
+                if (unflushed && (flushIntervalNanos == 0 || first == null
+                                  || System.nanoTime() - lastFlush >= flushIntervalNanos)) {
+                    flushIgnoringFailure(out);
+                    unflushed = false;
+                }
+                if (!unflushed) {
+                    lastFlush = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException stopped) {
+            flushIgnoringFailure(out);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if output was written after the last flush request in the batch.
+     */
+    private boolean write(List<Object> batch, Writer out) {
+        boolean unflushed = false;
+        for (Object entry : batch) {
+            if (entry instanceof CountDownLatch) {
+                flushIgnoringFailure(out);
+                ((CountDownLatch)entry).countDown();
+                unflushed = false;
+            } else {
+                try {
+                    out.write((String)entry);
+                } catch (IOException ignored) {
+                    // Like System.out itself, output that can not be written is discarded.
+                }
+                unflushed = true;
+            }
+        }
+        return unflushed;
+    }
+
+    private void flushIgnoringFailure(Writer out) {
+        try {
+            out.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Output that is printed as one unit, see {@link OutputManager#openSection()}. A section must
+     * not be used after it is closed.
+     */
+    class Section {
+        private final StringBuilder buffered = new StringBuilder();
+        private boolean closed;
+
+        /**
+         * Prints the specified output, or buffers it if another section is printed.
+         *
+         * @param output The output to print.
+         */
+        void print(String output) {
+            synchronized (waitingSections) {
+                if (printingSection == this) {
+                    printOrEnqueue(output);
+                } else {
+                    buffered.append(output);
+                }
+            }
+        }
+
+        /**
+         * Ends this section, and lets the next section be printed.
+         */
+        void close() {
+            synchronized (waitingSections) {
+                closed = true;
+                if (printingSection == this) {
+                    printWaitingSections();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.util.Properties;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ControllerConfigTest {
+    @Test
+    public void testDefaults() {
+        ControllerConfig instance = new ControllerConfig(new Properties());
+        assertTrue("No I/O threads.", instance.getIoThreads() > 0);
+        assertTrue("No I/O queue.", instance.getIoQueueSize() > 0);
+        assertEquals("Wrong number of CPU threads.", Runtime.getRuntime().availableProcessors(),
+                     instance.getCpuThreads());
+        assertEquals("Wrong rejection policy.", ControllerConfig.RejectionPolicy.ABORT,
+                     instance.getRejectionPolicy());
+    }
+
+    @Test
+    public void testFromCommandLine() {
+        String[] args = {"--io.threads=3", "--io.queue=7", "--io.rejection=caller_runs",
+                         "ignored"};
+        ControllerConfig instance = ControllerConfig.fromCommandLine(args);
+        assertEquals("Wrong number of I/O threads.", 3, instance.getIoThreads());
+        assertEquals("Wrong I/O queue size.", 7, instance.getIoQueueSize());
+        assertEquals("Wrong rejection policy.", ControllerConfig.RejectionPolicy.CALLER_RUNS,
+                     instance.getRejectionPolicy());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNumber() {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.IO_THREADS, "zero");
+        new ControllerConfig(props).getIoThreads();
+    }
+}
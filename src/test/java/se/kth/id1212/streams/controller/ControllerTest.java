@@ -0,0 +1,350 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.kth.id1212.streams.filehandler.FileHandler;
+import se.kth.id1212.streams.filehandler.MalformedContentException;
+import static org.junit.Assert.*;
+
+public class ControllerTest {
+    private static final String TEST_AREA_PATH = "controllertestarea";
+    private Path testArea = Paths.get(TEST_AREA_PATH);
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectory(testArea);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(testArea)) {
+            for (Path file : (Iterable<Path>)files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(testArea);
+    }
+    @Test
+    public void testFullIoQueueRejectsTasks() {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.IO_THREADS, "1");
+        props.setProperty(ControllerConfig.IO_QUEUE_SIZE, "1");
+        Controller instance = new Controller(new ControllerConfig(props));
+        instance.longRunningTask();
+        instance.longRunningTask();
+        try {
+            instance.longRunningTask();
+            fail("Did not reject task when queue was full.");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals("Wrong queue depth.", 1, instance.getIoQueueDepth());
+        assertEquals("Wrong number of rejected tasks.", 1, instance.getRejectedTaskCount());
+    }
+
+    @Test
+    public void testConcurrentWritesAreAllWrittenInOrder() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.WRITE_LINGER_MILLIS, "5");
+        props.setProperty(ControllerConfig.WRITE_BATCH_SIZE, "10");
+        Controller instance = new Controller(new ControllerConfig(props));
+        String path = TEST_AREA_PATH + "/test.txt";
+        int noOfWriters = 8;
+        int writesPerWriter = 100;
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int writer = 0; writer < noOfWriters; writer++) {
+            String writerName = "w" + writer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < writesPerWriter; i++) {
+                    CompletableFuture<Void> write = instance.write(path, writerName + "-" + i);
+                    synchronized (writes) {
+                        writes.add(write);
+                    }
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        String[] lines = new FileHandler().read(path).split(" ");
+        assertEquals("Wrong number of lines.", noOfWriters * writesPerWriter, lines.length);
+        int[] nextExpected = new int[noOfWriters];
+        for (String line : lines) {
+            int writer = Integer.parseInt(line.substring(1, line.indexOf('-')));
+            int index = Integer.parseInt(line.substring(line.indexOf('-') + 1));
+            assertEquals("Writes were reordered.", nextExpected[writer]++, index);
+        }
+    }
+
+    @Test
+    public void testMalformedWriteFailsOnlyItself() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.WRITE_LINGER_MILLIS, "50");
+        Controller instance = new Controller(new ControllerConfig(props));
+        String path = TEST_AREA_PATH + "/test.dat";
+        CompletableFuture<Void> first = instance.write(path, "1 2");
+        CompletableFuture<Void> malformed = instance.write(path, "3 x");
+        CompletableFuture<Void> last = instance.write(path, "4");
+        first.join();
+        last.join();
+        try {
+            malformed.join();
+            fail("Malformed write succeeded.");
+        } catch (CompletionException expected) {
+            assertTrue("Wrong exception.",
+                       expected.getCause() instanceof MalformedContentException);
+        }
+        assertEquals("Wrong file content.", "1 2 4", new FileHandler().read(path));
+    }
+
+    @Test
+    public void testConcurrentReadsSeeEarlierWritesInOrder() throws Exception {
+        Controller instance = new Controller();
+        String path = TEST_AREA_PATH + "/test.dat";
+        int noOfWriters = 8;
+        int writesPerWriter = 50;
+        List<CompletableFuture<Void>> operations = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (int writer = 0; writer < noOfWriters; writer++) {
+            int writerNo = writer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < writesPerWriter; i++) {
+                    int value = writerNo << 16 | i;
+                    CompletableFuture<Void> write = instance.write(path,
+                                                                   Integer.toString(value, 16));
+                    StringBuilder content = new StringBuilder();
+                    CompletableFuture<Void> read = instance.read(path, content::append)
+                            .thenRun(() -> {
+                                String error = checkOrder(content.toString(), writerNo, value);
+                                if (error != null) {
+                                    synchronized (failures) {
+                                        failures.add(error);
+                                    }
+                                }
+                            });
+                    synchronized (operations) {
+                        operations.add(write);
+                        operations.add(read);
+                    }
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        CompletableFuture.allOf(operations.toArray(new CompletableFuture[0])).join();
+        assertTrue(failures.toString(), failures.isEmpty());
+        String finalContent = new FileHandler().read(path);
+        for (int writer = 0; writer < noOfWriters; writer++) {
+            assertNull(checkOrder(finalContent, writer, writer << 16 | writesPerWriter - 1));
+        }
+    }
+
+    @Test
+    public void testFollowDeliversAppendedContent() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.FOLLOW_INTERVAL_MILLIS, "10");
+        Controller instance = new Controller(new ControllerConfig(props));
+        String path = TEST_AREA_PATH + "/test.txt";
+        instance.write(path, "before").join();
+        StringBuffer followed = new StringBuffer();
+        instance.follow(path, followed::append).join();
+        instance.write(path, "after").join();
+        for (int i = 0; i < 100 && followed.length() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue("Was not following.", instance.unfollow(path));
+        assertEquals("Did not deliver only appended content.", "after",
+                     followed.toString().trim());
+        assertFalse("Still following.", instance.unfollow(path));
+    }
+
+    @Test
+    public void testTailOfRecreatedFileStartsAtBeginning() throws Exception {
+        Controller instance = new Controller(new ControllerConfig(new Properties()));
+        String path = TEST_AREA_PATH + "/test.txt";
+        instance.write(path, "first content").join();
+        instance.tail(path, null, chunk -> {}).join();
+        instance.delete(path, progress -> {}).join();
+        instance.write(path, "second").join();
+        StringBuffer tailed = new StringBuffer();
+        instance.tail(path, null, tailed::append).join();
+        assertEquals("Offset of deleted file was kept.", "second", tailed.toString().trim());
+    }
+
+    @Test
+    public void testMetricsRecordOperationsAndFailures() throws Exception {
+        Controller instance = new Controller(new ControllerConfig(new Properties()));
+        String path = TEST_AREA_PATH + "/test.txt";
+        instance.write(path, "content").join();
+        instance.read(path, chunk -> {}).join();
+        try {
+            instance.read(TEST_AREA_PATH + "/missing.txt", chunk -> {}).join();
+            fail("Read missing file.");
+        } catch (CompletionException expected) {
+        }
+        Metrics metrics = instance.getMetrics();
+        assertEquals("Wrong number of writes.", 1, metrics.getCount("WRITE"));
+        assertEquals("Wrong number of reads.", 2, metrics.getCount("READ"));
+        assertEquals("Wrong number of failed reads.", 1, metrics.getFailures("READ"));
+        assertEquals("Wrong number of written chars.", "content".length(),
+                     metrics.getCharsWritten(".txt"));
+        assertTrue("No chars read.", metrics.getCharsRead(".txt") >= "content".length());
+        assertTrue("No latency recorded.", metrics.getLatencies("READ").getPercentile(1) > 0);
+        assertTrue("Stats without reads.", instance.getStats().contains("READ"));
+    }
+
+    @Test
+    public void testCancelFreesIoThread() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.IO_THREADS, "1");
+        Controller instance = new Controller(new ControllerConfig(props));
+        Job<Void> slow = instance.longRunningTask();
+        Thread.sleep(50);
+        assertEquals("Job not listed.", slow.getId(), instance.getJobs().get(0).getId());
+        assertTrue("Job not cancelled.", instance.cancel(slow.getId()));
+        assertTrue("Job not completed as cancelled.", slow.isCancelled());
+        assertFalse("Job cancelled twice.", instance.cancel(slow.getId()));
+        instance.createDir(TEST_AREA_PATH + "/dir").get(2, TimeUnit.SECONDS);
+        assertTrue("Cancelled job still listed.", instance.getJobs().isEmpty());
+        assertEquals("Cancelled job not failed.", 1, instance.getMetrics().getFailures("SLOWCMD"));
+    }
+
+    @Test
+    public void testCompletingJobFromOutsideFinishesIt() throws Exception {
+        Controller instance = new Controller(new ControllerConfig(new Properties()));
+        Job<Void> slow = instance.longRunningTask();
+        assertTrue("Job not completed.", slow.complete(null));
+        assertTrue("Completed job still listed.", instance.getJobs().isEmpty());
+        assertEquals("Completed job not recorded.", 1,
+                     instance.getMetrics().getCount("SLOWCMD"));
+        slow.obtrudeException(new IllegalStateException());
+        assertFalse("Outcome of completed job replaced.", slow.isCompletedExceptionally());
+        assertFalse("Completed job cancelled.", slow.cancel(true));
+    }
+
+    @Test
+    public void testJobTimesOut() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.COMMAND_TIMEOUT_MILLIS, "50");
+        Controller instance = new Controller(new ControllerConfig(props));
+        try {
+            instance.longRunningTask().get(2, TimeUnit.SECONDS);
+            fail("Job did not time out.");
+        } catch (ExecutionException expected) {
+            assertTrue("Wrong failure.", expected.getCause() instanceof TimeoutException);
+        }
+        instance.write(TEST_AREA_PATH + "/test.txt", "content").join();
+        assertEquals("Wrong number of failures.", 0, instance.getMetrics().getFailures("WRITE"));
+    }
+
+    @Test
+    public void testThreadPerTaskLimitsConcurrentIo() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.IO_EXECUTION, "thread_per_task");
+        props.setProperty(ControllerConfig.IO_CONCURRENCY, "1");
+        Controller instance = new Controller(new ControllerConfig(props));
+        Job<Void> slow = instance.longRunningTask();
+        Thread.sleep(50);
+        Job<Void> createDir = instance.createDir(TEST_AREA_PATH + "/dir");
+        Thread.sleep(50);
+        assertFalse("Limit on concurrent I/O not respected.", createDir.isDone());
+        assertEquals("Wrong number of waiting tasks.", 1, instance.getIoQueueDepth());
+        instance.cancel(slow.getId());
+        createDir.get(2, TimeUnit.SECONDS);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            writes.add(instance.write(TEST_AREA_PATH + "/test" + i + ".txt", "content" + i));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        assertEquals("Wrong content.", "content42",
+                     new FileHandler().read(TEST_AREA_PATH + "/test42.txt").trim());
+    }
+
+    @Test
+    public void testAsyncBackendReadsAllEarlierWrites() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.IO_BACKEND, "async");
+        props.setProperty(ControllerConfig.IO_THREADS, "2");
+        Controller instance = new Controller(new ControllerConfig(props));
+        String path = TEST_AREA_PATH + "/test.dat";
+        StringBuilder expResult = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            instance.write(path, Integer.toHexString(i));
+            expResult.append(Integer.toHexString(i)).append(' ');
+        }
+        StringBuffer result = new StringBuffer();
+        instance.read(path, result::append).get(5, TimeUnit.SECONDS);
+        assertEquals("Read did not see all earlier writes.", expResult.toString(),
+                     result.toString());
+        try {
+            instance.write(path, "12 nohex").join();
+            fail("Wrote malformed content.");
+        } catch (CompletionException expected) {
+            assertTrue("Wrong failure.", expected.getCause() instanceof MalformedContentException);
+        }
+    }
+
+    private String checkOrder(String content, int writerNo, int lastWrittenValue) {
+        int nextExpected = 0;
+        for (String hexValue : content.trim().split(" ")) {
+            int value = Integer.parseInt(hexValue, 16);
+            if (value >>> 16 == writerNo) {
+                if ((value & 0xffff) != nextExpected) {
+                    return "Writer " + writerNo + " expected " + nextExpected + " but found "
+                           + (value & 0xffff);
+                }
+                nextExpected++;
+            }
+        }
+        if (nextExpected <= (lastWrittenValue & 0xffff)) {
+            return "Read by writer " + writerNo + " did not see write " + (lastWrittenValue
+                                                                          & 0xffff);
+        }
+        return null;
+    }
+}
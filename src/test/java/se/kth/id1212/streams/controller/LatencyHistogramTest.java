@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.controller;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBoundsContainValue() {
+        for (long nanos : new long[]{0, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(nanos);
+            assertTrue("Upper bound below value " + nanos,
+                       LatencyHistogram.upperBoundOf(bucket) >= nanos);
+            assertTrue("Upper bound too far above value " + nanos,
+                       LatencyHistogram.upperBoundOf(bucket) - nanos <= nanos / 8);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram instance = new LatencyHistogram();
+        assertEquals("Percentile of empty histogram.", 0, instance.getPercentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            instance.record(i * 1000L);
+        }
+        assertEquals("Wrong count.", 1000, instance.getCount());
+        assertEquals("Wrong median.", 500000, instance.getPercentile(0.5), 500000 / 8);
+        assertEquals("Wrong p99.", 990000, instance.getPercentile(0.99), 990000 / 8);
+        assertEquals("Wrong p999.", 999000, instance.getPercentile(0.999), 999000 / 8);
+    }
+}
@@ -23,11 +23,29 @@
  */
 package se.kth.id1212.streams.filehandler;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -88,6 +106,21 @@ public class FileHandlerTest {
         }
     }
 
+    @Test
+    public void testFailedTextWriteThrows() throws IOException {
+        Path fullDevice = Paths.get("/dev/full");
+        Assume.assumeTrue(Files.isWritable(fullDevice));
+        Path link = testArea.resolve("full.txt");
+        try {
+            Files.createSymbolicLink(link, fullDevice);
+            instance.write(link.toString(), Arrays.asList("does not fit"), false);
+            fail("Failed write did not throw.");
+        } catch (IOException expected) {
+        } finally {
+            Files.deleteIfExists(link);
+        }
+    }
+
     @Test
     public void testWriteReadHexFile() throws IOException, ClassNotFoundException {
         String path = TEST_AREA_PATH + "/test.dat";
@@ -120,4 +153,741 @@ public class FileHandlerTest {
             Files.deleteIfExists(Paths.get(path));
         }
     }
+
+    @Test
+    public void testStreamingReadDeliversBoundedChunks() throws IOException,
+                                                                ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.txt";
+        String line = "a line that is repeated until the file is larger than several chunks";
+        int noOfLines = 3 * FileHandler.CHUNK_SIZE / line.length();
+        try {
+            for (int i = 0; i < noOfLines; i++) {
+                instance.write(path, line);
+            }
+            List<String> chunks = new ArrayList<>();
+            instance.read(path, chunks::add);
+            assertTrue("Did not deliver content in several chunks.", chunks.size() > 1);
+            for (String chunk : chunks) {
+                assertTrue("Chunk too large.", chunk.length() <= FileHandler.CHUNK_SIZE);
+            }
+            String expResult = instance.read(path);
+            String result = String.join("", chunks).trim();
+            assertEquals("Chunks did not contain the file content.", expResult, result);
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testWriteReadCompressedFiles() throws IOException, ClassNotFoundException {
+        String[] extensions = {FileHandler.TEXT_FILE_EXTENSION, FileHandler.HEX_FILE_EXTENSION};
+        try {
+            for (String extension : extensions) {
+                String path = TEST_AREA_PATH + "/test" + extension;
+                String compressedPath = path + ".z";
+                List<String> contents = new ArrayList<>();
+                for (int i = 0; i < 20000; i++) {
+                    contents.add(Integer.toHexString(i) + " -" + Integer.toHexString(i));
+                }
+                instance.write(path, contents, false);
+                instance.write(compressedPath, contents, false);
+                assertTrue("File was not compressed.", Files.size(Paths.get(compressedPath))
+                                                       < Files.size(Paths.get(path)) / 2);
+                assertEquals("Did not read what was written.", instance.read(path),
+                             instance.read(compressedPath));
+                List<String> chunks = new ArrayList<>();
+                instance.read(compressedPath, chunks::add);
+                for (String chunk : chunks) {
+                    assertTrue("Chunk too large.", chunk.length() <= FileHandler.CHUNK_SIZE);
+                }
+                assertEquals("Chunks did not contain the file content.", instance.read(path),
+                             String.join("", chunks).trim());
+
+                long end = instance.endOffset(compressedPath);
+                assertEquals("Wrong end offset.", instance.endOffset(path), end);
+                instance.write(compressedPath, "abc def");
+                StringBuilder appended = new StringBuilder();
+                assertTrue("Did not read appended content.",
+                           instance.readFrom(compressedPath, end, appended::append) > end);
+                assertEquals("Did not read only appended content.", "abc def",
+                             appended.toString().trim());
+
+                long middle = end / 2 - (end / 2) % Integer.BYTES;
+                StringBuilder expResult = new StringBuilder();
+                StringBuilder result = new StringBuilder();
+                instance.write(path, "abc def");
+                instance.readFrom(path, middle, expResult::append);
+                instance.readFrom(compressedPath, middle, result::append);
+                assertEquals("Did not seek to offset.", expResult.toString(), result.toString());
+                Files.delete(Paths.get(path));
+                Files.delete(Paths.get(compressedPath));
+            }
+        } finally {
+            for (String extension : extensions) {
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH, "test" + extension));
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH, "test" + extension + ".z"));
+            }
+        }
+    }
+
+    @Test
+    public void testBlockingCopyWaitsForAsyncWrite() throws Exception {
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+        new AsyncFileHandler(instance, ioExecutor);
+        String path = TEST_AREA_PATH + "/test.txt";
+        String copyPath = TEST_AREA_PATH + "/copy.txt";
+        Path file = instance.createAbsolutePathFromPathRelativeToWorkingDir(path);
+        AsyncPathLocks asyncLocks = instance.getAsyncLocks();
+        try {
+            instance.write(path, "content");
+            asyncLocks.lock(file, true).join();
+            CompletableFuture<CopyProgress> copied = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return instance.copy(path, copyPath, ForkJoinPool.commonPool());
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+            Thread.sleep(100);
+            assertFalse("Copy did not wait for asynchronous write.", copied.isDone());
+            asyncLocks.unlock(file, true);
+            copied.get(5, TimeUnit.SECONDS);
+            assertEquals("Wrong copy.", "content", instance.read(copyPath));
+        } finally {
+            ioExecutor.shutdown();
+            Files.deleteIfExists(Paths.get(path));
+            Files.deleteIfExists(Paths.get(copyPath));
+        }
+    }
+
+    @Test
+    public void testTryLockWithdrawsAsyncRequest() throws Exception {
+        AsyncPathLocks asyncLocks = new AsyncPathLocks();
+        PathLocks locks = new PathLocks().alsoLocking(asyncLocks);
+        Path file = Paths.get(TEST_AREA_PATH, "test.txt").toAbsolutePath();
+        asyncLocks.lock(file, true).join();
+        Lock writeLock = locks.lockFor(file).writeLock();
+        assertFalse("Lock taken while async lock held.", writeLock.tryLock());
+        assertFalse("Lock taken while async lock held.",
+                    writeLock.tryLock(50, TimeUnit.MILLISECONDS));
+        asyncLocks.unlock(file, true);
+        assertTrue("Withdrawn request blocks the lock.",
+                   asyncLocks.lock(file, false).isDone());
+        asyncLocks.unlock(file, false);
+        assertTrue("Lock not taken when free.", writeLock.tryLock());
+        assertFalse("Async lock free while lock held.", asyncLocks.tryLock(file, false));
+        writeLock.unlock();
+        writeLock.lockInterruptibly();
+        writeLock.unlock();
+        assertTrue("Async lock not released.", asyncLocks.tryLock(file, true));
+        asyncLocks.unlock(file, true);
+    }
+
+    @Test
+    public void testAsyncHandlerMatchesBlockingHandler() throws Exception {
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+        AsyncFileHandler asyncInstance = new AsyncFileHandler(instance, ioExecutor);
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 3 * FileHandler.CHUNK_SIZE) {
+            longLine.append("r\u00e4ksm\u00f6rg\u00e5s ");
+        }
+        List<String> textContents = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            textContents.add(i + " " + longLine);
+        }
+        Map<String, List<String>> contentsByExtension = new LinkedHashMap<>();
+        contentsByExtension.put(".txt", textContents);
+        contentsByExtension.put(".dat", Arrays.asList("1 ff -1 7fffffff", "-80000000 abc"));
+        contentsByExtension.put(".ser", Arrays.asList("first object", "second object"));
+        contentsByExtension.put(".lst", Arrays.asList("a b a", "c a"));
+        contentsByExtension.put(".txt.z", textContents);
+        contentsByExtension.put(".dat.z", Arrays.asList("1 ff -1 7fffffff", "-80000000 abc"));
+        try {
+            for (Map.Entry<String, List<String>> entry : contentsByExtension.entrySet()) {
+                String writtenAsync = TEST_AREA_PATH + "/async" + entry.getKey();
+                String writtenBlocking = TEST_AREA_PATH + "/blocking" + entry.getKey();
+                asyncInstance.write(writtenAsync, entry.getValue(), false).get();
+                instance.write(writtenBlocking, entry.getValue(), false);
+                assertArrayEquals("Different encoding of " + entry.getKey(),
+                                  Files.readAllBytes(Paths.get(writtenBlocking)),
+                                  Files.readAllBytes(Paths.get(writtenAsync)));
+                List<String> chunks = new ArrayList<>();
+                asyncInstance.read(writtenBlocking, chunks::add).get();
+                StringBuilder expResult = new StringBuilder();
+                instance.read(writtenBlocking, expResult::append);
+                assertEquals("Different content of " + entry.getKey(), expResult.toString(),
+                             String.join("", chunks));
+                for (String chunk : chunks) {
+                    assertTrue("Chunk too large.", chunk.length() <= FileHandler.CHUNK_SIZE);
+                }
+            }
+            try {
+                asyncInstance.write(TEST_AREA_PATH + "/async.dat",
+                                    Arrays.asList("1 2", "3 xyz"), false).get();
+                fail("Wrote malformed content.");
+            } catch (ExecutionException expected) {
+                assertTrue("Wrong failure.",
+                           expected.getCause() instanceof MalformedContentException);
+            }
+            assertEquals("Malformed content was partially written.",
+                         "1 ff -1 7fffffff -80000000 abc",
+                         instance.read(TEST_AREA_PATH + "/async.dat"));
+        } finally {
+            ioExecutor.shutdown();
+            for (String extension : contentsByExtension.keySet()) {
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH, "async" + extension));
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH, "blocking" + extension));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingReadSplitsLongElements() throws IOException,
+                                                            ClassNotFoundException {
+        StringBuilder longElement = new StringBuilder();
+        while (longElement.length() < 3 * FileHandler.CHUNK_SIZE) {
+            longElement.append("abcdefghij");
+        }
+        String content = "short " + longElement + " short";
+        for (String extension : new String[]{FileHandler.OBJ_FILE_EXTENSION,
+                                             FileHandler.LIST_FILE_EXTENSION}) {
+            String path = TEST_AREA_PATH + "/test" + extension;
+            try {
+                instance.write(path, content);
+                List<String> chunks = new ArrayList<>();
+                instance.read(path, chunks::add);
+                for (String chunk : chunks) {
+                    assertTrue("Chunk too large.", chunk.length() <= FileHandler.CHUNK_SIZE);
+                }
+                assertEquals("Chunks did not contain the file content.", content,
+                             String.join("", chunks).trim());
+            } finally {
+                Files.deleteIfExists(Paths.get(path));
+            }
+        }
+    }
+
+    @Test
+    public void testReadHexValues() throws IOException, ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.dat";
+        try {
+            instance.write(path, "0 1 ff -1");
+            instance.write(path, "7fffffff -80000000");
+            int[] expResult = {0, 1, 0xff, -1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+            assertArrayEquals("Did not read the written values.", expResult,
+                              instance.readHexValues(path).toArray());
+            assertArrayEquals("Did not read the written values.", expResult,
+                              instance.readHexArray(path));
+            assertEquals("Did not format the written values.", "0 1 ff -1 7fffffff -80000000",
+                         instance.read(path));
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testMalformedHexValueIsNotWritten() throws IOException, ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.dat";
+        try {
+            instance.write(path, "1 2 3");
+            try {
+                instance.write(path, "4 5 xyz 6");
+                fail("Wrote malformed hex value.");
+            } catch (MalformedContentException expected) {
+                assertEquals("Wrong position of malformed value.", 4, expected.getPosition());
+            }
+            instance.write(path, "7fffffff");
+            try {
+                instance.write(path, "80000000");
+                fail("Wrote hex value that does not fit in an int.");
+            } catch (MalformedContentException expected) {
+            }
+            String expResult = "1 2 3 7fffffff";
+            String result = instance.read(path);
+            assertEquals("Malformed content was written.", expResult, result);
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testWriteManyHexValues() throws IOException, ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.dat";
+        int noOfValues = 100000;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < noOfValues; i++) {
+            content.append(Integer.toString(i - noOfValues / 2, 16)).append("  ");
+        }
+        try {
+            instance.write(path, content.toString());
+            try {
+                instance.write(path, content.append("zz").toString());
+                fail("Wrote malformed hex value.");
+            } catch (MalformedContentException expected) {
+            }
+            int[] result = instance.readHexArray(path);
+            assertEquals("Wrong number of values.", noOfValues, result.length);
+            for (int i = 0; i < noOfValues; i++) {
+                assertEquals("Wrong value.", i - noOfValues / 2, result[i]);
+            }
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testWriteReadListFile() throws IOException, ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.lst";
+        String line1 = "1 sdf rt  yj sdssc ss rew";
+        String line2 = "\u00e5\u00e4\u00f6 sdf sdf sdf";
+        String lineSep = " ";
+        try {
+            instance.write(path, line1);
+            instance.write(path, line2);
+            String expResult = line1 + lineSep + line2;
+            String result = instance.read(path);
+            assertEquals("Did not read what was written.", expResult, result);
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testCorruptListFileFailsWithIOException() throws IOException,
+                                                                ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.lst";
+        byte[][] corruptFiles = {
+            {1, 7},
+            {1, (byte)0xfe, (byte)0xff, (byte)0xff, (byte)0xff, 0x7f},
+            {1, (byte)0xe0, (byte)0xff, (byte)0xff, (byte)0xff, 0x0f, 'a'}
+        };
+        try {
+            for (byte[] corruptFile : corruptFiles) {
+                Files.write(Paths.get(path), corruptFile);
+                try {
+                    instance.read(path);
+                    fail("Read corrupt list file.");
+                } catch (IOException expected) {
+                }
+            }
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testConvertObjToList() throws IOException, ClassNotFoundException {
+        String objPath = TEST_AREA_PATH + "/test.ser";
+        String listPath = TEST_AREA_PATH + "/test.lst";
+        String line = "1 sdf rt  yj sdssc ss rew rew rew";
+        try {
+            instance.write(objPath, line);
+            instance.convertObjToList(objPath, listPath);
+            assertEquals("Converted file differs.", instance.read(objPath),
+                         instance.read(listPath));
+            assertTrue("Converted file is not smaller.",
+                       Files.size(Paths.get(listPath)) < Files.size(Paths.get(objPath)));
+        } finally {
+            Files.deleteIfExists(Paths.get(objPath));
+            Files.deleteIfExists(Paths.get(listPath));
+        }
+    }
+
+    @Test
+    public void testReadCacheHitsAndInvalidation() throws IOException, ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.txt";
+        FileHandler cachingInstance = new FileHandler(1024 * 1024);
+        ReadCache cache = cachingInstance.getReadCache();
+        try {
+            cachingInstance.write(path, "first");
+            assertEquals("Did not read what was written.", "first", cachingInstance.read(path));
+            assertEquals("Did not read what was written.", "first", cachingInstance.read(path));
+            assertEquals("Wrong number of misses.", 1, cache.getMisses());
+            assertEquals("Wrong number of hits.", 1, cache.getHits());
+            cachingInstance.write(path, "second");
+            assertEquals("Read stale content.", "first second", cachingInstance.read(path));
+            assertEquals("Write did not invalidate cache.", 2, cache.getMisses());
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testReadCacheEvictsLeastRecentlyUsed() throws IOException,
+                                                             ClassNotFoundException {
+        String firstPath = TEST_AREA_PATH + "/first.txt";
+        String secondPath = TEST_AREA_PATH + "/second.txt";
+        String content = "0123456789012345678901234567890123456789";
+        FileHandler cachingInstance = new FileHandler(3 * content.length());
+        ReadCache cache = cachingInstance.getReadCache();
+        try {
+            cachingInstance.write(firstPath, content);
+            cachingInstance.write(secondPath, content);
+            cachingInstance.read(firstPath);
+            cachingInstance.read(secondPath);
+            assertEquals("Wrong number of evictions.", 1, cache.getEvictions());
+            assertTrue("Cache too large.", cache.getSizeInBytes() <= cache.getCapacityInBytes());
+            cachingInstance.read(secondPath);
+            assertEquals("Most recently used content was evicted.", 1, cache.getHits());
+        } finally {
+            Files.deleteIfExists(Paths.get(firstPath));
+            Files.deleteIfExists(Paths.get(secondPath));
+        }
+    }
+
+    @Test
+    public void testReadCacheSkipsContentLargerThanFile() throws IOException,
+                                                                ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.dat";
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            values.append(" 7fffff").append(Integer.toHexString(i + 16));
+        }
+        String content = values.toString().trim();
+        try {
+            instance.write(path, content);
+            FileHandler cachingInstance = new FileHandler(2 * Files.size(Paths.get(path)));
+            ReadCache cache = cachingInstance.getReadCache();
+            assertEquals("Did not read what was written.", content, cachingInstance.read(path));
+            StringBuilder chunks = new StringBuilder();
+            cachingInstance.read(path, chunks::append);
+            assertEquals("Did not read what was written.", content, chunks.toString().trim());
+            assertEquals("Cached content larger than the cache.", 0, cache.getSizeInBytes());
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testReadFromOffset() throws IOException, ClassNotFoundException {
+        String[] paths = {TEST_AREA_PATH + "/test.txt", TEST_AREA_PATH + "/test.dat",
+                          TEST_AREA_PATH + "/test.lst"};
+        try {
+            for (String path : paths) {
+                instance.write(path, "1 2");
+                StringBuilder firstDelta = new StringBuilder();
+                long offset = instance.readFrom(path, 0, firstDelta::append);
+                assertEquals("Did not read from start.", "1 2", firstDelta.toString().trim());
+                instance.write(path, "3 4");
+                StringBuilder secondDelta = new StringBuilder();
+                long nextOffset = instance.readFrom(path, offset, secondDelta::append);
+                assertEquals("Did not read only appended content.", "3 4",
+                             secondDelta.toString().trim());
+                assertEquals("Wrong end offset.", nextOffset, instance.endOffset(path));
+                StringBuilder noDelta = new StringBuilder();
+                assertEquals("Offset moved without new content.", nextOffset,
+                             instance.readFrom(path, nextOffset, noDelta::append));
+                assertEquals("Read content that was not appended.", "", noDelta.toString());
+            }
+        } finally {
+            for (String path : paths) {
+                Files.deleteIfExists(Paths.get(path));
+            }
+        }
+    }
+
+    @Test
+    public void testReadFromOffsetSkipsIncompleteLine() throws IOException,
+                                                             ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.txt";
+        try {
+            instance.write(path, "complete");
+            Files.write(Paths.get(path), "incomplete".getBytes(), StandardOpenOption.APPEND);
+            StringBuilder delta = new StringBuilder();
+            long offset = instance.readFrom(path, 0, delta::append);
+            assertEquals("Read incomplete line.", "complete", delta.toString().trim());
+            Files.write(Paths.get(path), " line\n".getBytes(), StandardOpenOption.APPEND);
+            delta.setLength(0);
+            instance.readFrom(path, offset, delta::append);
+            assertEquals("Did not read completed line.", "incomplete line",
+                         delta.toString().trim());
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testReadLineRange() throws IOException, ClassNotFoundException {
+        String path = TEST_AREA_PATH + "/test.txt";
+        Path indexPath = Paths.get(path + ".idx");
+        int noOfLines = 5000;
+        try {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < noOfLines; i++) {
+                lines.add("line" + i);
+            }
+            instance.write(path, lines, false);
+            StringBuilder range = new StringBuilder();
+            instance.readLines(path, 2047, 2050, range::append);
+            assertEquals("Wrong lines.", "line2047 line2048 line2049", range.toString().trim());
+            assertTrue("Did not create index.", Files.exists(indexPath));
+            instance.write(path, Arrays.asList("appended0", "appended1"), false);
+            range.setLength(0);
+            instance.readLines(path, noOfLines - 1, noOfLines + 5, range::append);
+            assertEquals("Wrong lines after append.", "line4999 appended0 appended1",
+                         range.toString().trim());
+            Files.delete(Paths.get(path));
+            instance.write(path, "new");
+            range.setLength(0);
+            instance.readLines(path, 0, 1, range::append);
+            assertEquals("Did not rebuild index of new file.", "new", range.toString().trim());
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+            Files.deleteIfExists(indexPath);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testReadLineRangeWhenIndexSharesStripeWithFile() throws IOException,
+                                                                       ClassNotFoundException {
+        int noOfFiles = 300;
+        try {
+            for (int i = 0; i < noOfFiles; i++) {
+                String path = TEST_AREA_PATH + "/f" + i + ".txt";
+                instance.write(path, "line" + i);
+                StringBuilder range = new StringBuilder();
+                instance.readLines(path, 0, 1, range::append);
+                assertEquals("Wrong line.", "line" + i, range.toString().trim());
+            }
+        } finally {
+            for (int i = 0; i < noOfFiles; i++) {
+                Path path = Paths.get(TEST_AREA_PATH + "/f" + i + ".txt");
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(LineIndex.indexFileOf(path));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativePageSizeIsRejected() throws IOException {
+        instance.listDir(TEST_AREA_PATH, null, -1, null, false, new StringBuilder()::append);
+    }
+
+    @Test
+    public void testPagedFilteredListing() throws IOException, ClassNotFoundException {
+        int noOfFiles = 25;
+        try {
+            for (int i = 0; i < noOfFiles; i++) {
+                instance.write(TEST_AREA_PATH + "/file" + i + ".txt", "content");
+                instance.write(TEST_AREA_PATH + "/file" + i + ".dat", "1");
+            }
+            List<String> listed = new ArrayList<>();
+            String pageToken = null;
+            int noOfPages = 0;
+            do {
+                StringBuilder page = new StringBuilder();
+                pageToken = instance.listDir(TEST_AREA_PATH, "*.txt", 10, pageToken, true,
+                                             page::append);
+                listed.addAll(Arrays.asList(page.toString().trim().split(" ")));
+                noOfPages++;
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH + "/file0.txt"));
+            } while (pageToken != null);
+            assertEquals("Wrong number of pages.", 3, noOfPages);
+            assertEquals("Wrong number of entries.", noOfFiles, listed.size());
+            for (String entry : listed) {
+                String[] nameAndAttrs = entry.split(",");
+                assertTrue("Listed entry not matching glob.", nameAndAttrs[0].endsWith(".txt"));
+                assertEquals("Wrong size.", "content".length() + System.lineSeparator().length(),
+                             Integer.parseInt(nameAndAttrs[1]));
+            }
+            assertEquals("Listed entries twice.", noOfFiles, listed.stream().distinct().count());
+            List<String> sorted = new ArrayList<>(listed);
+            Collections.sort(sorted);
+            assertEquals("Entries not listed in name order.", sorted, listed);
+        } finally {
+            for (int i = 0; i < noOfFiles; i++) {
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH + "/file" + i + ".txt"));
+                Files.deleteIfExists(Paths.get(TEST_AREA_PATH + "/file" + i + ".dat"));
+            }
+        }
+    }
+
+    @Test
+    public void testWatchCoalescesChangesOfSameFile() throws Exception {
+        String path = TEST_AREA_PATH + "/watched.txt";
+        FileHandler watching = new FileHandler(0, 50);
+        List<FileEvent> events = new CopyOnWriteArrayList<>();
+        try {
+            watching.watch(TEST_AREA_PATH, events::add);
+            for (int i = 0; i < 10; i++) {
+                watching.write(path, "line" + i);
+            }
+            for (int i = 0; i < 200 && events.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            assertEquals("Changes were not coalesced.", 1, events.size());
+            assertEquals("Wrong kind of change.", FileEvent.Kind.CREATED, events.get(0).getKind());
+            assertEquals("Wrong path.", Paths.get(path), events.get(0).getPath());
+            assertTrue("Was not watching.", watching.unwatch(TEST_AREA_PATH));
+            assertFalse("Still watching.", watching.unwatch(TEST_AREA_PATH));
+        } finally {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    @Test
+    public void testCopyDirectoryTree() throws IOException, ClassNotFoundException {
+        String source = TEST_AREA_PATH + "/source";
+        String target = TEST_AREA_PATH + "/target";
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            instance.createDir(source);
+            instance.createDir(source + "/sub");
+            instance.write(source + "/file.txt", "text");
+            instance.write(source + "/sub/file.dat", "1 ff");
+            CopyProgress progress = instance.copy(source, target, pool);
+            assertEquals("Wrong number of files.", 2, progress.getFiles());
+            assertEquals("Wrong number of bytes.",
+                         Files.size(Paths.get(source + "/file.txt"))
+                         + Files.size(Paths.get(source + "/sub/file.dat")), progress.getBytes());
+            assertEquals("Wrong text content.", "text", instance.read(target + "/file.txt"));
+            assertEquals("Wrong hex content.", instance.read(source + "/sub/file.dat"),
+                         instance.read(target + "/sub/file.dat"));
+        } finally {
+            pool.shutdown();
+            for (String tree : new String[]{source, target}) {
+                Files.deleteIfExists(Paths.get(tree + "/sub/file.dat"));
+                Files.deleteIfExists(Paths.get(tree + "/sub"));
+                Files.deleteIfExists(Paths.get(tree + "/file.txt"));
+                Files.deleteIfExists(Paths.get(tree));
+            }
+        }
+    }
+
+    @Test
+    public void testLineIndexIsNotListedCountedOrCopied() throws IOException,
+                                                               ClassNotFoundException {
+        String source = TEST_AREA_PATH + "/source";
+        String target = TEST_AREA_PATH + "/target";
+        Path textFile = Paths.get(source + "/file.txt");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            instance.createDir(source);
+            instance.write(textFile.toString(), "text");
+            instance.readLines(textFile.toString(), 0, 1, new StringBuilder()::append);
+            assertTrue("No index was created.", Files.exists(LineIndex.indexFileOf(textFile)));
+            StringBuilder listed = new StringBuilder();
+            instance.listDir(source, null, 0, null, false, listed::append);
+            assertFalse("Listed the index.", listed.toString().contains(
+                    LineIndex.INDEX_FILE_EXTENSION));
+            DiskUsage usage = instance.diskUsage(source, pool);
+            assertEquals("Counted the index.", 1, usage.getFiles());
+            assertEquals("Counted the index.", Files.size(textFile), usage.getBytes());
+            CopyProgress progress = instance.copy(source, target, pool);
+            assertEquals("Copied the index.", 1, progress.getFiles());
+            assertFalse("Copied the index.", Files.exists(
+                    LineIndex.indexFileOf(Paths.get(target + "/file.txt"))));
+        } finally {
+            pool.shutdown();
+            for (String tree : new String[]{source, target}) {
+                Files.deleteIfExists(LineIndex.indexFileOf(Paths.get(tree + "/file.txt")));
+                Files.deleteIfExists(Paths.get(tree + "/file.txt"));
+                Files.deleteIfExists(Paths.get(tree));
+            }
+        }
+    }
+
+    @Test
+    public void testMoveAndDeleteDirectoryTree() throws IOException, ClassNotFoundException {
+        String source = TEST_AREA_PATH + "/source";
+        String target = TEST_AREA_PATH + "/target";
+        int noOfDirs = 5;
+        int filesPerDir = 20;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            instance.createDir(source);
+            for (int i = 0; i < noOfDirs; i++) {
+                instance.createDir(source + "/dir" + i);
+                for (int j = 0; j < filesPerDir; j++) {
+                    instance.write(source + "/dir" + i + "/file" + j + ".txt", "content");
+                }
+            }
+            instance.move(source, target, pool);
+            assertFalse("Source still exists.", Files.exists(Paths.get(source)));
+            assertEquals("Wrong content after move.", "content",
+                         instance.read(target + "/dir0/file0.txt"));
+            DeleteProgress deleted = instance.delete(target, pool, progress -> {});
+            assertEquals("Wrong number of deleted files.", noOfDirs * filesPerDir,
+                         deleted.getFiles());
+            assertEquals("Wrong number of deleted directories.", noOfDirs + 1, deleted.getDirs());
+            assertFalse("Target still exists.", Files.exists(Paths.get(target)));
+        } finally {
+            pool.shutdown();
+            for (String tree : new String[]{source, target}) {
+                for (int i = 0; i < noOfDirs; i++) {
+                    for (int j = 0; j < filesPerDir; j++) {
+                        Files.deleteIfExists(Paths.get(tree + "/dir" + i + "/file" + j + ".txt"));
+                    }
+                    Files.deleteIfExists(Paths.get(tree + "/dir" + i));
+                }
+                Files.deleteIfExists(Paths.get(tree));
+            }
+        }
+    }
+
+    @Test
+    public void testDiskUsageIsUpdatedAfterWrite() throws IOException, ClassNotFoundException {
+        String dir = TEST_AREA_PATH + "/du";
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            instance.createDir(dir);
+            instance.createDir(dir + "/sub");
+            instance.write(dir + "/small.txt", "a");
+            instance.write(dir + "/sub/large.txt", "abcdefghij");
+            instance.write(dir + "/sub/values.dat", "1");
+            DiskUsage usage = instance.diskUsage(dir, pool);
+            assertEquals("Wrong number of files.", 3, usage.getFiles());
+            assertEquals("Wrong number of directories.", 2, usage.getDirs());
+            assertEquals("Wrong number of text files.", Long.valueOf(2),
+                         usage.getFilesPerExtension().get(".txt"));
+            assertEquals("Wrong largest file.", Paths.get(dir + "/sub/large.txt"),
+                         usage.getLargestFiles().keySet().iterator().next());
+            long sizeBefore = usage.getBytes();
+            instance.write(dir + "/sub/large.txt", "klmnopqrst");
+            assertEquals("Cached usage was not invalidated.",
+                         sizeBefore + "klmnopqrst".length() + System.lineSeparator().length(),
+                         instance.diskUsage(dir, pool).getBytes());
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(Paths.get(dir + "/sub/values.dat"));
+            Files.deleteIfExists(Paths.get(dir + "/sub/large.txt"));
+            Files.deleteIfExists(Paths.get(dir + "/sub"));
+            Files.deleteIfExists(Paths.get(dir + "/small.txt"));
+            Files.deleteIfExists(Paths.get(dir));
+        }
+    }
+
+    @Test
+    public void testGrepAcrossChunksAndFiles() throws IOException {
+        Path large = Paths.get(TEST_AREA_PATH + "/large.txt");
+        Path small = Paths.get(TEST_AREA_PATH + "/small.txt");
+        int noOfLines = TreeGrep.SPLIT_BYTES / 10 + 1000;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            try (BufferedWriter toFile = Files.newBufferedWriter(large)) {
+                for (int i = 0; i < noOfLines; i++) {
+                    toFile.write((i % 100000 == 99999 ? "needle" : "hay") + (1000000 + i));
+                    toFile.write('\n');
+                }
+            }
+            Files.write(small, Arrays.asList("no match", "a needle here", "needle7"));
+            List<String> found = new ArrayList<>();
+            long noOfMatches = instance.grep(TEST_AREA_PATH, "needle", pool,
+                                             chunk -> found.addAll(Arrays.asList(
+                                                     chunk.split(System.lineSeparator()))));
+            assertEquals("Wrong number of matches.", noOfLines / 100000 + 2, noOfMatches);
+            assertTrue("File was not split.", Files.size(large) > TreeGrep.SPLIT_BYTES);
+            assertTrue("Wrong line number after first chunk.", found.contains(
+                    Paths.get(TEST_AREA_PATH, "large.txt") + ":399999:needle1399999"));
+            assertTrue("Missing match in small file.", found.contains(
+                    Paths.get(TEST_AREA_PATH, "small.txt") + ":1:a needle here"));
+            assertEquals("Wrong number of regex matches.", 1,
+                         instance.grep(TEST_AREA_PATH, "^needle[0-9]$", pool, chunk -> {}));
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(large);
+            Files.deleteIfExists(small);
+        }
+    }
 }
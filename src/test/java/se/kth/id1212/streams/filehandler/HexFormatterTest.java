@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.filehandler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HexFormatterTest {
+    @Test
+    public void testFormatSameAsIntegerToString() {
+        int[] values = {0, 1, 9, 10, 15, 16, 255, 0x12345678, Integer.MAX_VALUE, -1, -16,
+                        Integer.MIN_VALUE + 1, Integer.MIN_VALUE};
+        for (int value : values) {
+            ByteBuffer out = ByteBuffer.allocate(HexFormatter.MAX_FORMATTED_LENGTH);
+            int length = HexFormatter.format(value, out);
+            String expResult = Integer.toString(value, 16);
+            String result = new String(out.array(), 0, length, StandardCharsets.US_ASCII);
+            assertEquals("Wrong hex text.", expResult, result);
+        }
+    }
+
+    @Test
+    public void testFormatAtBufferPosition() {
+        ByteBuffer out = ByteBuffer.allocate(2 * HexFormatter.MAX_FORMATTED_LENGTH);
+        HexFormatter.format(0xab, out);
+        out.put((byte)' ');
+        HexFormatter.format(-0xcd, out);
+        String result = new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII);
+        assertEquals("Did not append at buffer position.", "ab -cd", result);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.view;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.kth.id1212.streams.controller.ControllerConfig;
+import static org.junit.Assert.*;
+
+public class BatchInterpreterTest {
+    private static final String TEST_AREA_PATH = "batchtestarea";
+    private Path testArea = Paths.get(TEST_AREA_PATH);
+    private ByteArrayOutputStream outContent;
+    private PrintStream originalSysOut;
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectory(testArea);
+        originalSysOut = System.out;
+        outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.setOut(originalSysOut);
+        try (Stream<Path> files = Files.walk(testArea)) {
+            for (Path file : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testScriptKeepsOrderOfCommandsOnSamePath() throws IOException {
+        String script = "# Comments and empty lines are ignored.\n"
+                        + "\n"
+                        + "createdir " + TEST_AREA_PATH + "/a\n"
+                        + "write " + TEST_AREA_PATH + "/a/one.txt first\n"
+                        + "write " + TEST_AREA_PATH + "/other.txt unrelated\n"
+                        + "write " + TEST_AREA_PATH + "/a/one.txt second\n"
+                        + "read " + TEST_AREA_PATH + "/a/one.txt\n"
+                        + "copy " + TEST_AREA_PATH + "/a " + TEST_AREA_PATH + "/b\n"
+                        + "delete " + TEST_AREA_PATH + "/a\n"
+                        + "read " + TEST_AREA_PATH + "/b/one.txt\n"
+                        + "follow " + TEST_AREA_PATH + "/other.txt\n"
+                        + "quit\n"
+                        + "write " + TEST_AREA_PATH + "/notexecuted.txt x\n";
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.BATCH_WINDOW, "3");
+        new BatchInterpreter(new ControllerConfig(props))
+                .run(new BufferedReader(new StringReader(script)));
+        String[] lines = outContent.toString().split(System.lineSeparator());
+        assertEquals("Wrong number of output lines.", 6, lines.length);
+        assertEquals("Wrong content read before copy.", "first second", lines[0].trim());
+        assertTrue("Copy did not print progress.", lines[1].startsWith("Copied 1 files"));
+        assertTrue("Delete did not print progress.", lines[2].startsWith("Deleted 1 files"));
+        assertEquals("Wrong content read after copy.", "first second", lines[3].trim());
+        assertEquals("Unsupported command did not fail.",
+                     "Operation failed: follow " + TEST_AREA_PATH + "/other.txt", lines[4]);
+        assertEquals("Wrong summary.", "Executed 9 commands, 1 failed",
+                     lines[5].substring(0, lines[5].indexOf(", in")));
+        assertFalse("Deleted directory still exists.", Files.exists(testArea.resolve("a")));
+        assertFalse("Command after QUIT was executed.",
+                    Files.exists(testArea.resolve("notexecuted.txt")));
+    }
+
+    @Test
+    public void testLargeOutputIsPrintedInScriptOrder() throws IOException {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        for (int i = 0; first.size() * 8 < 2 * BatchInterpreter.MAX_BUFFERED_CHARS; i++) {
+            first.add("first" + i);
+            second.add("second" + i);
+        }
+        Files.write(testArea.resolve("first.txt"), first);
+        Files.write(testArea.resolve("second.txt"), second);
+        String script = "read " + TEST_AREA_PATH + "/first.txt\n"
+                        + "read " + TEST_AREA_PATH + "/second.txt\n";
+        new BatchInterpreter(new ControllerConfig(new Properties()))
+                .run(new BufferedReader(new StringReader(script)));
+        String[] lines = outContent.toString().split(System.lineSeparator());
+        assertEquals("Wrong number of output lines.", 3, lines.length);
+        assertEquals("Wrong first output.", String.join(" ", first), lines[0].trim());
+        assertEquals("Wrong second output.", String.join(" ", second), lines[1].trim());
+    }
+}
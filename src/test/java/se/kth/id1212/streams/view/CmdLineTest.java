@@ -173,4 +173,26 @@ public class CmdLineTest {
         result = instance.getParameter(2);
         assertEquals("Got wrong parameter.", expResult, result);
     }
+
+    @Test
+    public void testEscapesAndWhitespaceInParameters() {
+        String enteredLine = "\twrite  a\\ b \t\"c  \\\"d\\\"\" e\\x \"\"";
+        CmdLine instance = new CmdLine(enteredLine);
+        assertEquals("Did not find command.", Command.WRITE, instance.getCmd());
+        assertEquals("Got wrong parameter.", "a b", instance.getParameter(0));
+        assertEquals("Got wrong parameter.", "c  \"d\"", instance.getParameter(1));
+        assertEquals("Got wrong parameter.", "e\\x", instance.getParameter(2));
+        assertEquals("Got wrong parameter.", "", instance.getParameter(3));
+        assertNull("Found non-existing parameter.", instance.getParameter(4));
+    }
+
+    @Test
+    public void testCmdNameMustMatchWholeToken() {
+        assertEquals("Found command that is a prefix.", Command.INVALID,
+                     new CmdLine("rea file.txt").getCmd());
+        assertEquals("Found command that is longer.", Command.INVALID,
+                     new CmdLine("reading file.txt").getCmd());
+        assertEquals("Found invalid command by name.", Command.INVALID,
+                     new CmdLine("invalid").getCmd());
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package se.kth.id1212.streams.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.kth.id1212.streams.controller.ControllerConfig;
+import static org.junit.Assert.*;
+
+public class OutputManagerTest {
+    private ByteArrayOutputStream outContent;
+    private PrintStream originalSysOut;
+
+    @Before
+    public void setUpStreams() {
+        originalSysOut = System.out;
+        outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @After
+    public void cleanUpStreams() {
+        System.setOut(originalSysOut);
+    }
+
+    @Test
+    public void testAsyncOutputIsNotMixed() throws InterruptedException {
+        Properties props = new Properties();
+        props.setProperty(ControllerConfig.OUTPUT_ASYNC, "true");
+        props.setProperty(ControllerConfig.OUTPUT_QUEUE_SIZE, "4");
+        props.setProperty(ControllerConfig.OUTPUT_FLUSH_MILLIS, "10");
+        OutputManager instance = new OutputManager(new ControllerConfig(props));
+        int noOfPrinters = 8;
+        int printsPerPrinter = 500;
+        List<Thread> printers = new ArrayList<>();
+        for (int printer = 0; printer < noOfPrinters; printer++) {
+            String printerName = "p" + printer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < printsPerPrinter; i++) {
+                    instance.println(printerName + "-" + i + System.lineSeparator()
+                                     + printerName + "-" + i + "-end");
+                }
+            });
+            printers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : printers) {
+            thread.join();
+        }
+        instance.flush();
+        String[] lines = outContent.toString().split(System.lineSeparator());
+        assertEquals("Wrong number of lines.", 2 * noOfPrinters * printsPerPrinter, lines.length);
+        for (int i = 0; i < lines.length; i += 2) {
+            assertEquals("Output was mixed.", lines[i] + "-end", lines[i + 1]);
+        }
+    }
+
+    @Test
+    public void testSectionsAreNotMixed() {
+        OutputManager instance = new OutputManager();
+        OutputManager.Section first = instance.openSection();
+        OutputManager.Section second = instance.openSection();
+        first.print("a1 ");
+        second.print("b1 ");
+        instance.print("plain ");
+        first.print("a2 ");
+        second.print("b2 ");
+        second.close();
+        assertEquals("Other output mixed into section.", "a1 a2 ", outContent.toString());
+        first.close();
+        assertEquals("Waiting output not printed in order.", "a1 a2 b1 b2 plain ",
+                     outContent.toString());
+        instance.print("after");
+        assertEquals("Output after sections not printed.", "a1 a2 b1 b2 plain after",
+                     outContent.toString());
+    }
+}